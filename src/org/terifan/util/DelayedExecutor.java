@@ -1,7 +1,6 @@
 package org.terifan.util;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import org.terifan.util.executors.DebouncingExecutor;
 
 
 /**
@@ -11,22 +10,24 @@ import java.util.TimerTask;
  *   exe.schedule(() -> System.out.println("hello"), 1000);
  *   exe.schedule(() -> System.out.println("world"), 1000);
  * </pre>
+ * <p>
+ * All instances share the timer thread and worker pool of a DebouncingExecutor, an idle instance holds no resources. Use a
+ * DebouncingExecutor directly for leading edge, max wait or throttling.
+ * </p>
  */
 public class DelayedExecutor
 {
-	private TimerTask mTask;
-	private Timer mTimer;
+	private final static DebouncingExecutor<DelayedExecutor> SHARED = new DebouncingExecutor<>(0);
 
 
 	public DelayedExecutor()
 	{
-		mTimer = new Timer("DelayedExecutor", true);
 	}
 
 
 	public boolean isPending()
 	{
-		return mTask != null;
+		return SHARED.isPending(this);
 	}
 
 
@@ -36,26 +37,7 @@ public class DelayedExecutor
 	 */
 	public boolean schedule(Runnable aRunnable, long aDelay)
 	{
-		boolean pending = false;
-		if (mTask != null)
-		{
-			mTask.cancel();
-			pending = true;
-		}
-		mTask = new TimerTask()
-		{
-			@Override
-			public void run()
-			{
-				if (mTask != null)
-				{
-					aRunnable.run();
-					mTask = null;
-				}
-			}
-		};
-		mTimer.schedule(mTask, aDelay);
-		return pending;
+		return SHARED.submit(this, aDelay, aRunnable);
 	}
 
 
@@ -64,15 +46,7 @@ public class DelayedExecutor
 	 */
 	public boolean runImmediately()
 	{
-		TimerTask task = mTask;
-		if (task != null)
-		{
-			task.cancel();
-			task.run();
-			mTask = null;
-			return true;
-		}
-		return false;
+		return SHARED.flush(this);
 	}
 
 
@@ -82,13 +56,7 @@ public class DelayedExecutor
 	 */
 	public boolean cancel()
 	{
-		if (mTask != null)
-		{
-			mTask.cancel();
-			mTask = null;
-			return true;
-		}
-		return false;
+		return SHARED.cancel(this);
 	}
 
 
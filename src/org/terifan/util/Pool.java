@@ -1,21 +1,84 @@
 package org.terifan.util;
 
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.terifan.util.executors.DaemonThreadPool;
+import org.terifan.util.executors.TimerWheel;
 
 
 /**
  * A generic Pool implementation that will pool instances of objects for a limited time.
  *
  * If a pooled instances is older than the time limit it will be destroyed when the claim method is called.
+ * <p>
+ * Claim and release are lock-free. Each thread maps to a stripe holding a single idle item, so a thread releasing and claiming again
+ * reuses its own item without contention. Other items are kept in a shared lock-free list and idle stripes are searched before a new
+ * item is created. Items are stamped with a coarse clock updated every few milliseconds while any pool is open. The claim order is
+ * only approximate since the stripes are checked first.
+ * </p>
+ * <p>
+ * The number of items in existence, pooled or claimed, can be limited with <code>maxTotal</code>. When the limit is reached claim
+ * waits until an item is released or destroyed. Waiting threads are served in arrival order, a released item is handed to the thread
+ * that has waited the longest.
+ * </p>
+ * <p>
+ * With a minimum idle count the pool is kept filled in the background. Items are created and prepared on the DaemonThreadPool, several
+ * at a time, and a periodic task destroys expired items and refills the pool. Items destroyed by claim and release are also destroyed
+ * in the background so callers never wait for the destroy method.
+ * </p>
  */
 public abstract class Pool<E> implements AutoCloseable
 {
-	private TreeMap<Long, E> mPool = new TreeMap<>();
-	private int mCapacity;
-	private long mExpireTime;
-	private boolean mOpen;
-	private boolean mYoungFirst;
+	private final static int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+	private final static long CLOCK_RESOLUTION = 10;
+	private final static Object CLOCK_LOCK = new Object();
+	private final static Object PERMIT = new Object();
+	private final static Object CLOSED = new Object();
+	private final static Object CANCELLED = new Object();
+	private final static int PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+	private final static ExecutorService MAINTENANCE = DaemonThreadPool.shared();
+
+	private static volatile long mClock = System.currentTimeMillis();
+	private static int mOpenPools;
+	private static long mClockGeneration;
+	private static TimerWheel.Timeout mClockTick;
+
+	private final AtomicReferenceArray<Node<E>> mStripes = new AtomicReferenceArray<>(STRIPES);
+	private final ConcurrentLinkedDeque<Node<E>> mPool = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger mSize = new AtomicInteger();
+	private volatile int mCapacity;
+	private final long mExpireTime;
+	private volatile boolean mOpen;
+	private volatile boolean mYoungFirst;
+	private volatile int mMaxTotal = Integer.MAX_VALUE;
+	private final AtomicInteger mTotal = new AtomicInteger();
+	private final ConcurrentLinkedQueue<Waiter> mWaiters = new ConcurrentLinkedQueue<>();
+	private final long mStartTime = System.nanoTime();
+	private final LongAdder mHits = new LongAdder();
+	private final LongAdder mMisses = new LongAdder();
+	private final LongAdder mCreated = new LongAdder();
+	private final LongAdder mDestroyed = new LongAdder();
+	private final LongAdder mWaits = new LongAdder();
+	private final LongAdder mWaitTime = new LongAdder();
+	private final LongAdder mTimeouts = new LongAdder();
+	private volatile int mMinIdle;
+	private volatile long mMaintenanceInterval = 1000;
+	private final AtomicInteger mPending = new AtomicInteger();
+	private final AtomicInteger mFillers = new AtomicInteger();
+	private final AtomicBoolean mMaintenanceScheduled = new AtomicBoolean();
 
 
 	/**
@@ -26,10 +89,15 @@ public abstract class Pool<E> implements AutoCloseable
 	 */
 	public Pool(int aCapacity, int aExpireTimeSeconds)
 	{
-		mOpen = true;
 		mExpireTime = aExpireTimeSeconds <= 0 ? Long.MAX_VALUE : 1000L * aExpireTimeSeconds;
 
 		capacity(aCapacity);
+
+		synchronized (CLOCK_LOCK)
+		{
+			mOpen = true;
+			startClock();
+		}
 	}
 
 
@@ -38,7 +106,7 @@ public abstract class Pool<E> implements AutoCloseable
 	 */
 	public int getPoolSize()
 	{
-		return mPool.size();
+		return mSize.get();
 	}
 
 
@@ -114,229 +182,1186 @@ public abstract class Pool<E> implements AutoCloseable
 	/**
 	 * Return an instance by either creating a new item or claiming one from the pool.
 	 * <p>
-	 * This method calls the create method when the pool is empty. The prepare method is always called on each instance.
+	 * This method calls the create method when the pool is empty. The prepare method is always called on each instance. If the maximum
+	 * total is reached this method waits until an item is released.
+	 *
+	 * @return an item
+	 * @throws IllegalStateException if the Pool is closed or the thread is interrupted while waiting
+	 */
+	public E claim() throws IllegalStateException
+	{
+		try
+		{
+			return acquire(-1);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for an item.", e);
+		}
+	}
+
+
+	/**
+	 * Return an instance by either creating a new item or claiming one from the pool, waiting at most the time provided if the maximum
+	 * total is reached.
 	 *
 	 * @return an item
 	 * @throws IllegalStateException if the Pool is closed
+	 * @throws TimeoutException if no item became available in time
 	 */
-	public synchronized E claim() throws IllegalStateException
+	public E claim(long aTimeoutMillis) throws IllegalStateException, InterruptedException, TimeoutException
 	{
-		if (!mOpen)
+		E item = acquire(TimeUnit.MILLISECONDS.toNanos(Math.max(0, aTimeoutMillis)));
+
+		if (item == null)
 		{
-			throw new IllegalStateException("This pool is closed.");
+			throw new TimeoutException("No item available within " + aTimeoutMillis + " ms.");
 		}
 
+		return item;
+	}
+
+
+	/**
+	 * Claim an item, return null if the timeout passed. A negative timeout waits forever.
+	 */
+	private E acquire(long aTimeoutNanos) throws InterruptedException
+	{
+		long start = System.nanoTime();
+
 		for (;;)
 		{
-			Entry<Long, E> entry;
-
-			if (mYoungFirst)
-			{
-				entry = mPool.pollLastEntry();
-			}
-			else
+			if (!mOpen)
 			{
-				entry = mPool.pollFirstEntry();
+				throw new IllegalStateException("This pool is closed.");
 			}
 
-			if (entry == null)
+			Object grant = mWaiters.isEmpty() ? grant() : null;
+
+			if (grant == null)
 			{
-				E item = create();
-				if (!prepare(item))
+				grant = await(start, aTimeoutNanos);
+
+				if (grant == null)
 				{
-					throw new IllegalStateException("Create method returned an instance that are not ready for use.");
+					return null;
 				}
-				return item;
 			}
 
-			E item = entry.getValue();
+			E item = use(grant);
 
-			boolean fresh = System.currentTimeMillis() - entry.getKey() < mExpireTime;
-
-			if (fresh && prepare(item))
+			if (item != null)
 			{
+				replenish();
 				return item;
 			}
-
-			destroy(item, fresh ? "claim/broken" : "claim/expired");
 		}
 	}
 
 
 	/**
-	 * Call this method when an instance is no longer used. The instance provided will either be destroyed or added to the pool for later
-	 * reuse.
-	 *
-	 * @param aItem the item that is no longer used.
+	 * Return a pooled item, a permit to create a new item or null if the maximum total is reached.
 	 */
-	public synchronized void release(E aItem)
+	private Object grant()
 	{
-		if (mPool.size() < mCapacity && reset(aItem))
+		Node<E> node = poll();
+
+		if (node != null)
 		{
-			add(aItem);
+			return node;
 		}
-		else
+
+		return reserveTotal() ? PERMIT : null;
+	}
+
+
+	private boolean reserveTotal()
+	{
+		for (int total; (total = mTotal.get()) < mMaxTotal;)
 		{
-			destroy(aItem, "release/capacity");
+			if (mTotal.compareAndSet(total, total + 1))
+			{
+				return true;
+			}
 		}
+		return false;
 	}
 
 
-	private synchronized void add(E aItem)
+	/**
+	 * Return the item of a grant or null if a pooled item had to be destroyed.
+	 */
+	private E use(Object aGrant)
 	{
-		for (;;)
+		if (aGrant == PERMIT)
 		{
-			Long key = System.currentTimeMillis();
-
-			if (!mPool.containsKey(key)) // handle cases where multiple instances are released the same millisecond.
+			E item;
+			try
+			{
+				item = create();
+			}
+			catch (RuntimeException | Error e)
 			{
-//				System.out.println("ConnectionPool: Adding connection to pool");
+				releasePermit();
+				throw e;
+			}
 
-				mPool.put(key, aItem);
-				return;
+			mCreated.increment();
+			mMisses.increment();
+
+			if (!prepareOrDiscard(item))
+			{
+				throw new IllegalStateException("Create method returned an instance that are not ready for use.");
 			}
+			return item;
+		}
+
+		Node<E> node = node(aGrant);
+		E item = node.mItem;
+
+		if (expired(node))
+		{
+			discardLater(item, "claim/expired");
+			return null;
 		}
+
+		if (node.mPrepared || prepareOrDiscard(item))
+		{
+			mHits.increment();
+			return item;
+		}
+
+		return null;
 	}
 
 
 	/**
-	 * Clears all items from the pool. The destroy method will be called for each item in the pool.
+	 * Prepare an item for use. An item failing to prepare, or throwing an exception, is destroyed in the background and its place in the
+	 * total is released before the exception is rethrown.
 	 */
-	public synchronized void clear()
+	private boolean prepareOrDiscard(E aItem)
 	{
-		Exception ex = null;
+		boolean prepared;
+		try
+		{
+			prepared = prepare(aItem);
+		}
+		catch (RuntimeException | Error e)
+		{
+			discardLater(aItem, "claim/broken");
+			throw e;
+		}
 
-		for (E item : mPool.values())
+		if (!prepared)
 		{
-			try
+			discardLater(aItem, "claim/broken");
+		}
+
+		return prepared;
+	}
+
+
+	/**
+	 * Queue the current thread and wait for a grant. Return null if the timeout passed.
+	 */
+	private Object await(long aStart, long aTimeoutNanos) throws InterruptedException
+	{
+		Waiter waiter = new Waiter();
+		mWaiters.offer(waiter);
+
+		if (!mOpen && waiter.cancel())
+		{
+			mWaiters.remove(waiter);
+			throw new IllegalStateException("This pool is closed.");
+		}
+
+		Object grant = grant();
+
+		if (grant != null)
+		{
+			if (waiter.cancel())
 			{
-				destroy(item, "clear");
+				mWaiters.remove(waiter);
+				return grant;
 			}
-			catch (Exception e)
+
+			giveBack(grant);
+		}
+
+		try
+		{
+			while (waiter.get() == null)
 			{
-				ex = e;
+				if (aTimeoutNanos < 0)
+				{
+					LockSupport.park(this);
+				}
+				else
+				{
+					long remaining = aStart + aTimeoutNanos - System.nanoTime();
+
+					if (remaining <= 0)
+					{
+						break;
+					}
+
+					LockSupport.parkNanos(this, remaining);
+				}
+
+				if (Thread.interrupted())
+				{
+					if (waiter.cancel())
+					{
+						mWaiters.remove(waiter);
+						throw new InterruptedException();
+					}
+
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			if (waiter.cancel())
+			{
+				mWaiters.remove(waiter);
+				mTimeouts.increment();
+				return null;
 			}
 		}
+		finally
+		{
+			mWaits.increment();
+			mWaitTime.add(System.nanoTime() - aStart);
+		}
 
-		mPool.clear();
+		grant = waiter.get();
 
-		if (ex != null)
+		if (grant == CLOSED)
 		{
-			throw new IllegalStateException("An exception occured while clearing an item.", ex);
+			throw new IllegalStateException("This pool is closed.");
 		}
+
+		return grant;
 	}
 
 
 	/**
-	 * Destroys excessive items and any pooled instances that are older than the expire time.
+	 * Call this method when an instance is no longer used. The instance provided will either be destroyed or added to the pool for later
+	 * reuse. If threads are waiting for an item it is handed to the thread that has waited the longest.
 	 *
-	 * Calling this method from a Timer is recommended to release instances that may consume resources.
+	 * @param aItem the item that is no longer used.
 	 */
-	public synchronized void cleanUp()
+	public void release(E aItem)
 	{
-		while (!mPool.isEmpty())
+		if (!mOpen || !reserve())
+		{
+			discardLater(aItem, "release/capacity");
+			return;
+		}
+
+		boolean usable;
+		try
+		{
+			usable = reset(aItem);
+		}
+		catch (RuntimeException | Error e)
 		{
-			Long key = mPool.firstKey();
+			mSize.decrementAndGet();
+			discardLater(aItem, "release/reset");
+			throw e;
+		}
 
-			if (mPool.size() <= mCapacity && System.currentTimeMillis() - key < mExpireTime)
-			{
-				break;
-			}
+		if (!usable)
+		{
+			mSize.decrementAndGet();
+			discardLater(aItem, "release/reset");
+			return;
+		}
+
+		add(new Node<>(aItem, mClock));
+
+		// the pool may have been closed and cleared while the item was reset
+		if (!mOpen)
+		{
+			clear();
+			return;
+		}
+
+		signal();
+	}
 
-			boolean full = mPool.size() >= mCapacity;
 
-			E item = mPool.remove(key);
+	/**
+	 * Destroy an item and pass its place in the total to a waiting thread.
+	 */
+	private void discard(E aItem, String aReason)
+	{
+		try
+		{
+			destroy(aItem, aReason);
+		}
+		finally
+		{
+			mDestroyed.increment();
+			releasePermit();
+		}
+	}
+
 
-			if (!full && reuse(item))
+	/**
+	 * Destroy an item on a maintenance thread.
+	 */
+	private void discardLater(E aItem, String aReason)
+	{
+		MAINTENANCE.execute(() ->
+		{
+			try
 			{
-				add(item);
+				discard(aItem, aReason);
 			}
-			else
+			catch (Exception | Error e)
 			{
-				destroy(item, full ? "cleanup/capacity" : "cleanup/reuse");
+				e.printStackTrace(System.out);
 			}
-		}
+		});
 	}
 
 
 	/**
-	 * Return the number of items in this pool.
+	 * Start filling the pool on maintenance threads if it holds fewer than the minimum idle items.
 	 */
-	public synchronized int size()
+	private void replenish()
 	{
-		return mPool.size();
+		int fillers = Math.min(mMinIdle - mSize.get() - mPending.get(), PARALLELISM) - mFillers.get();
+
+		for (int i = 0; i < fillers && mOpen; i++)
+		{
+			mFillers.incrementAndGet();
+
+			MAINTENANCE.execute(() ->
+			{
+				try
+				{
+					fill();
+				}
+				finally
+				{
+					mFillers.decrementAndGet();
+				}
+			});
+		}
 	}
 
 
 	/**
-	 * Return the capacity of this pool.
+	 * Create and prepare items until the pool holds the minimum idle items, the maximum total is reached or an item fails.
 	 */
-	public synchronized int capacity()
+	private void fill()
 	{
-		return mCapacity;
+		while (mOpen && reservePending())
+		{
+			if (!reserveTotal())
+			{
+				mPending.decrementAndGet();
+				return;
+			}
+
+			E item;
+			try
+			{
+				item = create();
+				mCreated.increment();
+			}
+			catch (Exception | Error e)
+			{
+				mPending.decrementAndGet();
+				releasePermit();
+				e.printStackTrace(System.out);
+				return;
+			}
+
+			boolean prepared;
+			try
+			{
+				prepared = prepare(item);
+			}
+			catch (Exception | Error e)
+			{
+				e.printStackTrace(System.out);
+				prepared = false;
+			}
+
+			if (!prepared || !reserve())
+			{
+				mPending.decrementAndGet();
+				discard(item, prepared ? "fill/capacity" : "fill/broken");
+				return;
+			}
+
+			add(new Node<>(item, mClock, true));
+			mPending.decrementAndGet();
+
+			// the pool may have been closed and cleared while the item was created
+			if (!mOpen)
+			{
+				clear();
+				return;
+			}
+
+			signal();
+		}
 	}
 
 
 	/**
-	 * Set the capacity of this pool. This method calls cleanUp to remove any excessive items.
+	 * Reserve the creation of an item if the pool and items already being created are fewer than the minimum idle items.
 	 */
-	public synchronized void capacity(int aNewCapacity)
+	private boolean reservePending()
 	{
-		if (aNewCapacity < 1)
+		for (int pending; (pending = mPending.get()) < mMinIdle - mSize.get();)
 		{
-			throw new IllegalArgumentException("Illegal capacity: " + aNewCapacity);
+			if (mPending.compareAndSet(pending, pending + 1))
+			{
+				return true;
+			}
 		}
+		return false;
+	}
 
-		mCapacity = aNewCapacity;
 
-		if (mPool.size() > mCapacity)
+	private void releasePermit()
+	{
+		if (!handOff(PERMIT))
 		{
-			cleanUp();
+			mTotal.decrementAndGet();
+			signal();
 		}
 	}
 
 
 	/**
-	 * Return true if this Pool is open for business.
+	 * Return a grant not used by a waiting thread.
 	 */
-	public boolean isOpen()
+	private void giveBack(Object aGrant)
 	{
-		return mOpen;
+		if (aGrant == PERMIT)
+		{
+			releasePermit();
+		}
+		else
+		{
+			mSize.incrementAndGet();
+			mPool.offerFirst(node(aGrant));
+			signal();
+		}
 	}
 
 
 	/**
-	 * Sets the capacity to zero and destroys and pooled instance. Any future attempts to claim instances will fail. It's still possible to
-	 * release instances to a closed Pool.
+	 * Return a grant known not to be a permit as a pooled item.
 	 */
-	@Override
-	public void close()
+	@SuppressWarnings("unchecked")
+	private static <E> Node<E> node(Object aGrant)
 	{
-		mOpen = false;
+		return (Node<E>)aGrant;
+	}
 
-		clear();
+
+	/**
+	 * Hand pooled items and permits to waiting threads until either runs out. A waiting thread always checks the pool after queueing
+	 * itself so an item added while it queued is never missed.
+	 */
+	private void signal()
+	{
+		while (!mWaiters.isEmpty())
+		{
+			Object grant = grant();
+
+			if (grant == null)
+			{
+				return;
+			}
+
+			if (!handOff(grant))
+			{
+				if (grant == PERMIT)
+				{
+					mTotal.decrementAndGet();
+				}
+				else
+				{
+					mSize.incrementAndGet();
+					mPool.offerFirst(node(grant));
+				}
+			}
+		}
 	}
 
 
 	/**
-	 * If true the youngest entries will be claimed from the pool
+	 * Pass the grant to the thread that has waited the longest, return false if no thread is waiting.
 	 */
-	public boolean isYoungFirst()
+	private boolean handOff(Object aGrant)
 	{
-		return mYoungFirst;
+		for (Waiter waiter; (waiter = mWaiters.poll()) != null;)
+		{
+			if (waiter.offer(aGrant))
+			{
+				return true;
+			}
+		}
+		return false;
 	}
 
 
 	/**
-	 * Decides in what order entries are claimed from the pool. Default value is false.
-	 *
-	 * A young-first pool will reuse a smaller set of items and remove unused items quicker. An old-first pool will act in a round-robin
-	 * fashion returning items a fair amount of times.
-	 *
-	 * @param aYoungFirst if true the youngest entries will be claimed from the pool first
+	 * Reserve room for an item, return false if the pool is full.
 	 */
-	public void setYoungFirst(boolean aYoungFirst)
+	private boolean reserve()
 	{
-		mYoungFirst = aYoungFirst;
+		for (int size; (size = mSize.get()) < mCapacity;)
+		{
+			if (mSize.compareAndSet(size, size + 1))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Add a reserved item to the stripe of the current thread or to the shared list if the stripe is taken.
+	 */
+	private void add(Node<E> aNode)
+	{
+		if (!mStripes.compareAndSet(stripe(), null, aNode))
+		{
+			mPool.offerLast(aNode);
+		}
+	}
+
+
+	/**
+	 * Remove an item from the stripe of the current thread, the shared list or any other stripe.
+	 */
+	private Node<E> poll()
+	{
+		int stripe = stripe();
+
+		Node<E> node = mStripes.get(stripe);
+
+		if (node == null || !mStripes.compareAndSet(stripe, node, null))
+		{
+			node = mYoungFirst ? mPool.pollLast() : mPool.pollFirst();
+
+			for (int i = 1; node == null && i < STRIPES && mSize.get() > 0; i++)
+			{
+				node = mStripes.getAndSet((stripe + i) & (STRIPES - 1), null);
+			}
+		}
+
+		if (node != null)
+		{
+			mSize.decrementAndGet();
+		}
+
+		return node;
+	}
+
+
+	/**
+	 * Remove all items from the pool.
+	 */
+	private ArrayList<Node<E>> drain()
+	{
+		ArrayList<Node<E>> nodes = new ArrayList<>();
+
+		for (int i = 0; i < STRIPES; i++)
+		{
+			Node<E> node = mStripes.getAndSet(i, null);
+			if (node != null)
+			{
+				nodes.add(node);
+			}
+		}
+
+		for (Node<E> node; (node = mPool.pollFirst()) != null;)
+		{
+			nodes.add(node);
+		}
+
+		mSize.addAndGet(-nodes.size());
+
+		return nodes;
+	}
+
+
+	private static int stripe()
+	{
+		long id = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+
+		return (int)(id >>> 32) & (STRIPES - 1);
+	}
+
+
+	/**
+	 * Clears all items from the pool. The destroy method will be called for each item in the pool.
+	 */
+	public void clear()
+	{
+		Exception ex = null;
+
+		for (Node<E> node : drain())
+		{
+			try
+			{
+				discard(node.mItem, "clear");
+			}
+			catch (Exception e)
+			{
+				ex = e;
+			}
+		}
+
+		if (ex != null)
+		{
+			throw new IllegalStateException("An exception occured while clearing an item.", ex);
+		}
+	}
+
+
+	/**
+	 * Destroys excessive items and any pooled instances that are older than the expire time.
+	 *
+	 * Calling this method from a Timer is recommended to release instances that may consume resources.
+	 */
+	public void cleanUp()
+	{
+		for (Node<E> node : mPool)
+		{
+			if ((mSize.get() > mCapacity || expired(node)) && mPool.removeFirstOccurrence(node))
+			{
+				evict(node);
+			}
+		}
+
+		for (int i = 0; i < STRIPES; i++)
+		{
+			Node<E> node = mStripes.get(i);
+
+			if (node != null && (mSize.get() > mCapacity || expired(node)) && mStripes.compareAndSet(i, node, null))
+			{
+				evict(node);
+			}
+		}
+
+		signal();
+	}
+
+
+	private boolean expired(Node<E> aNode)
+	{
+		return mClock - aNode.mReleased >= mExpireTime;
+	}
+
+
+	/**
+	 * Count an opened pool, the clock starts ticking when the first pool is opened. Must be called holding the clock lock.
+	 */
+	private static void startClock()
+	{
+		if (mOpenPools++ == 0)
+		{
+			mClock = System.currentTimeMillis();
+			long generation = ++mClockGeneration;
+			mClockTick = TimerWheel.shared().schedule(CLOCK_RESOLUTION, () -> tick(generation));
+		}
+	}
+
+
+	/**
+	 * Count a closed pool, the clock stops when no pool remains open. Must be called holding the clock lock.
+	 */
+	private static void stopClock()
+	{
+		if (--mOpenPools == 0)
+		{
+			mClockGeneration++;
+			mClockTick.cancel();
+			mClockTick = null;
+		}
+	}
+
+
+	/**
+	 * Update the clock and schedule the next tick unless the clock has been stopped since this tick was scheduled.
+	 */
+	private static void tick(long aGeneration)
+	{
+		synchronized (CLOCK_LOCK)
+		{
+			if (aGeneration == mClockGeneration)
+			{
+				mClock = System.currentTimeMillis();
+				mClockTick = TimerWheel.shared().schedule(CLOCK_RESOLUTION, () -> tick(aGeneration));
+			}
+		}
+	}
+
+
+	/**
+	 * Reuse or destroy an item removed from the pool by cleanUp.
+	 */
+	private void evict(Node<E> aNode)
+	{
+		boolean full = mSize.getAndDecrement() > mCapacity;
+
+		if (!full && reuse(aNode.mItem))
+		{
+			if (reserve())
+			{
+				mPool.offerLast(new Node<>(aNode.mItem, mClock));
+				return;
+			}
+
+			full = true;
+		}
+
+		discard(aNode.mItem, full ? "cleanup/capacity" : "cleanup/reuse");
+	}
+
+
+	/**
+	 * Return the number of items in this pool.
+	 */
+	public int size()
+	{
+		return mSize.get();
+	}
+
+
+	/**
+	 * Return the capacity of this pool.
+	 */
+	public int capacity()
+	{
+		return mCapacity;
+	}
+
+
+	/**
+	 * Set the capacity of this pool. This method calls cleanUp to remove any excessive items.
+	 */
+	public void capacity(int aNewCapacity)
+	{
+		if (aNewCapacity < 1)
+		{
+			throw new IllegalArgumentException("Illegal capacity: " + aNewCapacity);
+		}
+
+		mCapacity = aNewCapacity;
+
+		if (mSize.get() > mCapacity)
+		{
+			cleanUp();
+		}
+	}
+
+
+	/**
+	 * Return the minimum number of idle items kept in the pool.
+	 */
+	public int minIdle()
+	{
+		return mMinIdle;
+	}
+
+
+	/**
+	 * Set the minimum number of idle items kept in the pool. Items are created in the background and the pool is checked periodically
+	 * while the minimum is positive. Items are still limited by the capacity and maximum total.
+	 */
+	public void minIdle(int aMinIdle)
+	{
+		if (aMinIdle < 0 || aMinIdle > mCapacity)
+		{
+			throw new IllegalArgumentException("Illegal min idle: " + aMinIdle);
+		}
+
+		mMinIdle = aMinIdle;
+
+		if (aMinIdle > 0 && mMaintenanceScheduled.compareAndSet(false, true))
+		{
+			TimerWheel.shared().schedule(mMaintenanceInterval, this::maintain);
+		}
+
+		replenish();
+	}
+
+
+	/**
+	 * Set the time between periodic maintenance runs while a minimum idle count is set. Default is 1000 milliseconds.
+	 */
+	public void maintenanceInterval(long aIntervalMillis)
+	{
+		if (aIntervalMillis < 1)
+		{
+			throw new IllegalArgumentException("Illegal interval: " + aIntervalMillis);
+		}
+
+		mMaintenanceInterval = aIntervalMillis;
+	}
+
+
+	/**
+	 * Fill the pool to the minimum idle count, creating items in parallel, and block until done.
+	 */
+	public void warmUp()
+	{
+		int tasks = Math.min(mMinIdle - mSize.get() - mPending.get(), PARALLELISM);
+
+		ArrayList<Future<?>> futures = new ArrayList<>();
+		for (int i = 1; i < tasks; i++)
+		{
+			futures.add(MAINTENANCE.submit(this::fill));
+		}
+
+		fill();
+
+		for (Future<?> future : futures)
+		{
+			try
+			{
+				future.get();
+			}
+			catch (ExecutionException e)
+			{
+				throw new IllegalStateException(e.getCause());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Periodic maintenance: destroy expired items and refill the pool. Stops when the pool is closed or the minimum idle is zero.
+	 */
+	private void maintain()
+	{
+		if (!mOpen || mMinIdle == 0)
+		{
+			mMaintenanceScheduled.set(false);
+			return;
+		}
+
+		MAINTENANCE.execute(() ->
+		{
+			try
+			{
+				cleanUp();
+				replenish();
+			}
+			catch (Exception | Error e)
+			{
+				e.printStackTrace(System.out);
+			}
+			finally
+			{
+				TimerWheel.shared().schedule(mMaintenanceInterval, this::maintain);
+			}
+		});
+	}
+
+
+	/**
+	 * Return the number of items in existence, pooled or claimed.
+	 */
+	public int total()
+	{
+		return mTotal.get();
+	}
+
+
+	/**
+	 * Return the maximum number of items in existence, pooled or claimed.
+	 */
+	public int maxTotal()
+	{
+		return mMaxTotal;
+	}
+
+
+	/**
+	 * Set the maximum number of items in existence, pooled or claimed. Default is unlimited. Lowering the limit does not destroy any items,
+	 * instead claims wait until enough items have been destroyed.
+	 */
+	public void maxTotal(int aMaxTotal)
+	{
+		if (aMaxTotal < 1)
+		{
+			throw new IllegalArgumentException("Illegal max total: " + aMaxTotal);
+		}
+
+		mMaxTotal = aMaxTotal;
+
+		signal();
+	}
+
+
+	/**
+	 * Return a snapshot of the pool statistics collected since the pool was created.
+	 */
+	public Statistics getStatistics()
+	{
+		return new Statistics(mHits.sum(), mMisses.sum(), mCreated.sum(), mDestroyed.sum(), mWaits.sum(), mWaitTime.sum(), mTimeouts.sum(), System.nanoTime() - mStartTime);
+	}
+
+
+	/**
+	 * Return true if this Pool is open for business.
+	 */
+	public boolean isOpen()
+	{
+		return mOpen;
+	}
+
+
+	/**
+	 * Destroys all pooled instances. Any future attempts to claim instances will fail, including threads waiting for an instance. Instances released to a closed Pool are destroyed.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (CLOCK_LOCK)
+		{
+			if (mOpen)
+			{
+				mOpen = false;
+				stopClock();
+			}
+		}
+
+		for (Waiter waiter; (waiter = mWaiters.poll()) != null;)
+		{
+			waiter.offer(CLOSED);
+		}
+
+		clear();
+	}
+
+
+	/**
+	 * If true the youngest entries will be claimed from the pool
+	 */
+	public boolean isYoungFirst()
+	{
+		return mYoungFirst;
+	}
+
+
+	/**
+	 * Decides in what order entries are claimed from the pool. Default value is false.
+	 *
+	 * A young-first pool will reuse a smaller set of items and remove unused items quicker. An old-first pool will act in a round-robin
+	 * fashion returning items a fair amount of times.
+	 *
+	 * @param aYoungFirst if true the youngest entries will be claimed from the pool first
+	 */
+	public void setYoungFirst(boolean aYoungFirst)
+	{
+		mYoungFirst = aYoungFirst;
+	}
+
+
+	private static final class Node<E>
+	{
+		final E mItem;
+		final long mReleased;
+		final boolean mPrepared;
+
+
+		Node(E aItem, long aReleased)
+		{
+			this(aItem, aReleased, false);
+		}
+
+
+		Node(E aItem, long aReleased, boolean aPrepared)
+		{
+			mItem = aItem;
+			mReleased = aReleased;
+			mPrepared = aPrepared;
+		}
+	}
+
+
+	private static final class Waiter
+	{
+		final Thread mThread = Thread.currentThread();
+		final AtomicReference<Object> mGrant = new AtomicReference<>();
+
+
+		Object get()
+		{
+			return mGrant.get();
+		}
+
+
+		boolean offer(Object aGrant)
+		{
+			if (mGrant.compareAndSet(null, aGrant))
+			{
+				LockSupport.unpark(mThread);
+				return true;
+			}
+			return false;
+		}
+
+
+		boolean cancel()
+		{
+			return mGrant.compareAndSet(null, CANCELLED);
+		}
+	}
+
+
+	/**
+	 * Counters collected by a Pool. Statistics for an interval are found by subtracting an earlier snapshot.
+	 */
+	public static class Statistics
+	{
+		private final long mHits;
+		private final long mMisses;
+		private final long mCreated;
+		private final long mDestroyed;
+		private final long mWaits;
+		private final long mWaitTime;
+		private final long mTimeouts;
+		private final long mElapsedTime;
+
+
+		Statistics(long aHits, long aMisses, long aCreated, long aDestroyed, long aWaits, long aWaitTime, long aTimeouts, long aElapsedTime)
+		{
+			mHits = aHits;
+			mMisses = aMisses;
+			mCreated = aCreated;
+			mDestroyed = aDestroyed;
+			mWaits = aWaits;
+			mWaitTime = aWaitTime;
+			mTimeouts = aTimeouts;
+			mElapsedTime = aElapsedTime;
+		}
+
+
+		/**
+		 * Return the statistics for the interval between the earlier snapshot and this.
+		 */
+		public Statistics since(Statistics aEarlier)
+		{
+			return new Statistics(mHits - aEarlier.mHits, mMisses - aEarlier.mMisses, mCreated - aEarlier.mCreated, mDestroyed - aEarlier.mDestroyed, mWaits - aEarlier.mWaits, mWaitTime - aEarlier.mWaitTime, mTimeouts - aEarlier.mTimeouts, mElapsedTime - aEarlier.mElapsedTime);
+		}
+
+
+		/**
+		 * Return number of claims served by a pooled item.
+		 */
+		public long getHits()
+		{
+			return mHits;
+		}
+
+
+		/**
+		 * Return number of claims that created a new item.
+		 */
+		public long getMisses()
+		{
+			return mMisses;
+		}
+
+
+		/**
+		 * Return number of items created, including items created in the background to keep the minimum idle count.
+		 */
+		public long getCreated()
+		{
+			return mCreated;
+		}
+
+
+		/**
+		 * Return number of items destroyed.
+		 */
+		public long getDestroyed()
+		{
+			return mDestroyed;
+		}
+
+
+		/**
+		 * Return number of claims that had to wait for an item.
+		 */
+		public long getWaits()
+		{
+			return mWaits;
+		}
+
+
+		/**
+		 * Return number of claims that timed out.
+		 */
+		public long getTimeouts()
+		{
+			return mTimeouts;
+		}
+
+
+		/**
+		 * Return the total time claims spent waiting, in milliseconds.
+		 */
+		public double getWaitTimeMillis()
+		{
+			return mWaitTime / 1e6;
+		}
+
+
+		/**
+		 * Return the average time a waiting claim waited, in milliseconds.
+		 */
+		public double getAverageWaitMillis()
+		{
+			return mWaits == 0 ? 0 : mWaitTime / 1e6 / mWaits;
+		}
+
+
+		/**
+		 * Return the fraction of claims served by a pooled item.
+		 */
+		public double getHitRatio()
+		{
+			long claims = mHits + mMisses;
+			return claims == 0 ? 0 : mHits / (double)claims;
+		}
+
+
+		/**
+		 * Return the number of items created per second.
+		 */
+		public double getCreationRate()
+		{
+			return mElapsedTime <= 0 ? 0 : mCreated * 1e9 / mElapsedTime;
+		}
+
+
+		@Override
+		public String toString()
+		{
+			return String.format("hits=%d, misses=%d, created=%d, destroyed=%d, waits=%d, timeouts=%d, hitRatio=%.3f, averageWait=%.3fms, creationRate=%.1f/s", mHits, mMisses, mCreated, mDestroyed, mWaits, mTimeouts, getHitRatio(), getAverageWaitMillis(), getCreationRate());
+		}
 	}
 }
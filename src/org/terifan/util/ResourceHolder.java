@@ -1,6 +1,8 @@
 package org.terifan.util;
 
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 
 
@@ -29,11 +31,15 @@ import java.util.function.Supplier;
  *		mFile.close();
  *	}
  * </pre>
+ * <p>
+ * The resource is held by a handle counting the threads currently invoking it. Any number of threads invoke the resource concurrently,
+ * each only incrementing and decrementing the count. Closing detaches the handle, so no new invocations start, and waits for the count
+ * to reach zero before the resource is closed.
+ * </p>
  */
 public class ResourceHolder<T> implements AutoCloseable
 {
-	private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
-	private T mResource;
+	private final AtomicReference<Handle<T>> mHandle = new AtomicReference<>();
 
 
 	/**
@@ -52,7 +58,10 @@ public class ResourceHolder<T> implements AutoCloseable
 	 */
 	public ResourceHolder(T aResource)
 	{
-		mResource = aResource;
+		if (aResource != null)
+		{
+			mHandle.set(new Handle<>(aResource));
+		}
 	}
 
 
@@ -66,21 +75,10 @@ public class ResourceHolder<T> implements AutoCloseable
 	 */
 	public void open(T aResource)
 	{
-		mLock.writeLock().lock();
-		try
-		{
-			if (mResource != null)
-			{
-				throw new IllegalArgumentException("A resource is already held by this ResourceHolder");
-			}
-
-			mResource = aResource;
-		}
-		finally
+		if (aResource != null && !mHandle.compareAndSet(null, new Handle<>(aResource)))
 		{
-			mLock.writeLock().unlock();
+			throw new IllegalArgumentException("A resource is already held by this ResourceHolder");
 		}
-
 	}
 
 
@@ -96,19 +94,20 @@ public class ResourceHolder<T> implements AutoCloseable
 	 * @return
 	 *   true if it was invoked
 	 */
-	public synchronized boolean invoke(Invoker<T> aInvoker)
+	public boolean invoke(Invoker<T> aInvoker)
 	{
-		mLock.readLock().lock();
-		try
+		Handle<T> handle = mHandle.get();
+
+		if (handle == null || !handle.acquire())
 		{
-			if (mResource == null)
-			{
-				return false;
-			}
+			return false;
+		}
 
+		try
+		{
 			try
 			{
-				aInvoker.process(mResource);
+				aInvoker.process(handle.mResource);
 			}
 			catch (RuntimeException e)
 			{
@@ -123,7 +122,7 @@ public class ResourceHolder<T> implements AutoCloseable
 		}
 		finally
 		{
-			mLock.readLock().unlock();
+			handle.release();
 		}
 	}
 
@@ -141,7 +140,7 @@ public class ResourceHolder<T> implements AutoCloseable
 	 * @return
 	 *   the value returned by the Invoker instance or null if the resource has been closed
 	 */
-	public synchronized <R> R invoke(InvokerWithReturn<T, R> aInvoker)
+	public <R> R invoke(InvokerWithReturn<T, R> aInvoker)
 	{
 		return invoke(aInvoker, () -> null);
 	}
@@ -162,19 +161,20 @@ public class ResourceHolder<T> implements AutoCloseable
 	 * @return
 	 *   the value returned by the Invoker instance or null if the resource has been closed
 	 */
-	public synchronized <R> R invoke(InvokerWithReturn<T, R> aInvoker, Supplier<R> aDefaultValue)
+	public <R> R invoke(InvokerWithReturn<T, R> aInvoker, Supplier<R> aDefaultValue)
 	{
-		mLock.readLock().lock();
-		try
+		Handle<T> handle = mHandle.get();
+
+		if (handle == null || !handle.acquire())
 		{
-			if (mResource == null)
-			{
-				return aDefaultValue.get();
-			}
+			return aDefaultValue.get();
+		}
 
+		try
+		{
 			try
 			{
-				return aInvoker.process(mResource);
+				return aInvoker.process(handle.mResource);
 			}
 			catch (RuntimeException e)
 			{
@@ -187,30 +187,29 @@ public class ResourceHolder<T> implements AutoCloseable
 		}
 		finally
 		{
-			mLock.readLock().unlock();
+			handle.release();
 		}
 	}
 
 
 	/**
-	 * Release the resource being held. If the resource implements AutoCloseable interface the close method is called.
+	 * Release the resource being held. Blocks until invocations in progress have finished. If the resource implements AutoCloseable
+	 * interface the close method is called.
 	 */
 	@Override
 	public void close()
 	{
-		T tmp;
+		Handle<T> handle = mHandle.getAndSet(null);
 
-		mLock.writeLock().lock();
-		try
-		{
-			tmp = mResource;
-			mResource = null;
-		}
-		finally
+		if (handle == null)
 		{
-			mLock.writeLock().unlock();
+			return;
 		}
 
+		handle.drain();
+
+		T tmp = handle.mResource;
+
 		if (tmp instanceof AutoCloseable)
 		{
 			try
@@ -234,15 +233,7 @@ public class ResourceHolder<T> implements AutoCloseable
 	 */
 	public boolean isAvailable()
 	{
-		mLock.readLock().lock();
-		try
-		{
-			return mResource != null;
-		}
-		finally
-		{
-			mLock.readLock().unlock();
-		}
+		return mHandle.get() != null;
 	}
 
 
@@ -256,4 +247,68 @@ public class ResourceHolder<T> implements AutoCloseable
 	{
 		R process(E aResource) throws Exception;
 	}
+
+
+	/**
+	 * A resource and the number of threads invoking it. The sign bit of the count is set when the handle is closed.
+	 */
+	private static final class Handle<T>
+	{
+		private final static int CLOSED = Integer.MIN_VALUE;
+
+		final T mResource;
+		final AtomicInteger mUsers;
+		volatile Thread mCloser;
+
+
+		Handle(T aResource)
+		{
+			mResource = aResource;
+			mUsers = new AtomicInteger();
+		}
+
+
+		boolean acquire()
+		{
+			for (int users; (users = mUsers.get()) >= 0;)
+			{
+				if (mUsers.compareAndSet(users, users + 1))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+
+		void release()
+		{
+			if (mUsers.decrementAndGet() == CLOSED)
+			{
+				LockSupport.unpark(mCloser);
+			}
+		}
+
+
+		/**
+		 * Close the handle and wait for the current users to release it.
+		 */
+		void drain()
+		{
+			mCloser = Thread.currentThread();
+
+			boolean interrupted = false;
+
+			for (int users = mUsers.getAndUpdate(v -> v | CLOSED) | CLOSED; users != CLOSED; users = mUsers.get())
+			{
+				LockSupport.park(this);
+				interrupted |= Thread.interrupted();
+			}
+
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 }
@@ -1,21 +1,25 @@
 package org.terifan.util;
 
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 
 public class SharedResource<T> implements AutoCloseable
 {
-	private SharedResourceFactory mFactory;
-	private T mInstance;
+	private final SharedResourceFactory<T,?> mFactory;
+	private final T mInstance;
+	private final SharedResourceFactory.Entry<T,?> mEntry;
+	private final AtomicBoolean mClosed;
 	private UUID mOwner;
 
 
-	SharedResource(SharedResourceFactory aFactory, T aInstance, UUID aOwner)
+	SharedResource(SharedResourceFactory<T,?> aFactory, T aInstance, SharedResourceFactory.Entry<T,?> aEntry)
 	{
 		mInstance = aInstance;
-		mOwner = aOwner;
+		mEntry = aEntry;
 		mFactory = aFactory;
+		mClosed = new AtomicBoolean();
 	}
 
 
@@ -25,15 +29,28 @@ public class SharedResource<T> implements AutoCloseable
 	}
 
 
-	public UUID getOwner()
+	/**
+	 * Return a unique id of this reference, created on first use.
+	 */
+	public synchronized UUID getOwner()
 	{
+		if (mOwner == null)
+		{
+			mOwner = UUID.randomUUID();
+		}
 		return mOwner;
 	}
 
 
+	/**
+	 * Release this reference, the instance is destroyed when no other reference remain. Closing a reference more than once has no effect.
+	 */
 	@Override
 	public void close()
 	{
-		mFactory.remove(this);
+		if (mClosed.compareAndSet(false, true))
+		{
+			mFactory.release(mEntry);
+		}
 	}
 }
@@ -1,11 +1,11 @@
 package org.terifan.util;
 
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -31,22 +31,25 @@ import java.util.UUID;
  * ...
  * factory.close(Thread.currentThread().getId()); // destroy method called and database close
  * </pre>
+ * <p>
+ * Instances are kept in a ConcurrentHashMap. When several threads ask for the same prototype at once exactly one of them calls the
+ * create method while the others wait for its result. Each instance has an atomic reference count and is destroyed when the count
+ * reaches zero.
+ * </p>
  *
  * @param <I> Type of objects created by this factory.
  * @param <P> Type of prototypes this factory accepts for creating new instances.
  */
 public abstract class SharedResourceFactory<I,P>
 {
-	private Map<P,I> mPrototypeInstance;
-	private Map<I,P> mInstancePrototype;
-	private Map<I,HashSet<UUID>> mInstanceOwners;
+	private final ConcurrentHashMap<P,Entry<I,P>> mPrototypeInstance;
+	private final ConcurrentHashMap<I,Entry<I,P>> mInstancePrototype;
 
 
 	public SharedResourceFactory()
 	{
-		mInstanceOwners = Collections.synchronizedMap(new HashMap<>());
-		mInstancePrototype = Collections.synchronizedMap(new HashMap<>());
-		mPrototypeInstance = Collections.synchronizedMap(new HashMap<>());
+		mPrototypeInstance = new ConcurrentHashMap<>();
+		mInstancePrototype = new ConcurrentHashMap<>();
 	}
 
 
@@ -55,100 +58,115 @@ public abstract class SharedResourceFactory<I,P>
 	 */
 	public SharedResource<I> peek(P aPrototype)
 	{
-		UUID aOwner = UUID.randomUUID();
+		Entry<I,P> entry = mPrototypeInstance.get(aPrototype);
 
-		synchronized (aPrototype)
+		if (entry == null || !entry.isCreated() || !entry.retain())
 		{
-			I instance = mPrototypeInstance.get(aPrototype);
-
-			if (instance == null)
-			{
-				return null;
-			}
-
-			HashSet<UUID> owners = mInstanceOwners.get(instance);
-
-			if (owners == null)
-			{
-				owners = new HashSet<>();
-				mInstanceOwners.put(instance, owners);
-			}
-
-			owners.add(aOwner);
-
-			return new SharedResource<>(this, instance, aOwner);
+			return null;
 		}
+
+		return new SharedResource<>(this, entry.mInstance.join(), entry);
 	}
 
 
 	/**
-	 * Return an already created instance or create a new object using the prototype provided.
+	 * Return an already created instance or create a new object using the prototype provided. If another thread is creating an instance
+	 * of the same prototype this method waits for it.
 	 */
 	public SharedResource<I> get(P aPrototype)
 	{
-		UUID aOwner = UUID.randomUUID();
-
-		synchronized (aOwner)
+		for (;;)
 		{
-			I instance = mPrototypeInstance.get(aPrototype);
+			Entry<I,P> entry = mPrototypeInstance.get(aPrototype);
 
-			if (instance == null)
+			if (entry == null)
 			{
-				instance = create(aPrototype);
+				Entry<I,P> created = new Entry<>(aPrototype);
 
-				if (instance == null)
+				entry = mPrototypeInstance.putIfAbsent(aPrototype, created);
+
+				if (entry == null)
 				{
-					return null;
+					return create(created);
 				}
+			}
 
-				mPrototypeInstance.put(aPrototype, instance);
-				mInstancePrototype.put(instance, aPrototype);
+			if (!entry.retain())
+			{
+				// the entry is being removed, wait for it to leave the map
+				mPrototypeInstance.remove(aPrototype, entry);
+				continue;
 			}
 
-			HashSet<UUID> owners = mInstanceOwners.get(instance);
+			I instance;
+			try
+			{
+				instance = entry.mInstance.join();
+			}
+			catch (CompletionException e)
+			{
+				throw e.getCause() instanceof RuntimeException v ? v : e;
+			}
 
-			if (owners == null)
+			if (instance == null)
 			{
-				owners = new HashSet<>();
-				mInstanceOwners.put(instance, owners);
+				return null;
 			}
 
-			owners.add(aOwner);
+			return new SharedResource<>(this, instance, entry);
+		}
+	}
+
 
-			return new SharedResource<>(this, instance, aOwner);
+	/**
+	 * Create the instance of an entry just added to the map and publish the result to threads waiting for it.
+	 */
+	private SharedResource<I> create(Entry<I,P> aEntry)
+	{
+		I instance;
+		try
+		{
+			instance = create(aEntry.mPrototype);
 		}
+		catch (RuntimeException | Error e)
+		{
+			mPrototypeInstance.remove(aEntry.mPrototype, aEntry);
+			aEntry.mInstance.completeExceptionally(e);
+			throw e;
+		}
+
+		if (instance == null)
+		{
+			mPrototypeInstance.remove(aEntry.mPrototype, aEntry);
+			aEntry.mInstance.complete(null);
+			return null;
+		}
+
+		mInstancePrototype.put(instance, aEntry);
+		aEntry.mInstance.complete(instance);
+
+		return new SharedResource<>(this, instance, aEntry);
 	}
 
 
 	/**
-	 * Removes an Instance and Owner pair. If the instance isn't owned by any other Owner it will be destroyed.
+	 * Releases a reference to an instance. If the instance isn't referenced by any other SharedResource it will be destroyed.
 	 */
-//	private synchronized void remove(I aInstance, O aOwner)
-//	{
-//		HashSet<O> owners = mInstanceOwners.get(aInstance);
-//
-//		if (owners != null)
-//		{
-//			if (owners.remove(aOwner) && owners.isEmpty())
-//			{
-//				remove(aInstance);
-//			}
-//		}
-//	}
+	public void remove(SharedResource<I> aInstance)
+	{
+		aInstance.close();
+	}
 
 
 	/**
-	 * Removes an Instance and Owner pair. If the instance isn't owned by any other Owner it will be destroyed.
+	 * Called once by SharedResource.close. The entry always belongs to this factory.
 	 */
-	public synchronized void remove(SharedResource<I> aInstance)
+	@SuppressWarnings("unchecked")
+	void release(Entry<I,?> aEntry)
 	{
-		HashSet<UUID> owners = mInstanceOwners.get(aInstance.get());
-		if (owners != null)
+		if (aEntry.release())
 		{
-			if (owners.remove(aInstance.getOwner()) && owners.isEmpty())
-			{
-				remove(aInstance.get());
-			}
+			remove((Entry<I,P>)aEntry);
 		}
 	}
 
@@ -156,62 +174,42 @@ public abstract class SharedResourceFactory<I,P>
 	/**
 	 * Removes an Instance. The destroy method will be called.
 	 */
-	public synchronized void remove(I aInstance)
+	public void remove(I aInstance)
 	{
-		P prototype = mInstancePrototype.remove(aInstance);
+		Entry<I,P> entry = mInstancePrototype.get(aInstance);
 
-		if (prototype != null)
+		if (entry != null && entry.kill())
 		{
-			mPrototypeInstance.remove(prototype);
-			mInstanceOwners.remove(aInstance);
-			destroy(prototype, aInstance);
+			remove(entry);
 		}
 	}
 
 
-	/**
-	 * Removes the Owner provided from all object instances. If an object isn't owned by any Owner then it will be destroyed.
-	 */
-//	public synchronized void removeOwner(O aOwner)
-//	{
-//		for (Object instance : mInstanceOwners.keySet().toArray())
-//		{
-//			remove((I)instance, aOwner);
-//		}
-//	}
+	private void remove(Entry<I,P> aEntry)
+	{
+		I instance = aEntry.mInstance.join();
 
+		mPrototypeInstance.remove(aEntry.mPrototype, aEntry);
+		mInstancePrototype.remove(instance, aEntry);
 
-	/**
-	 * Removes the instance with the Prototype provided. If an object instance of the Prototype isn't owned by any Owner then it will be destroyed.
-	 */
-//	public synchronized void removePrototype(P aPrototype)
-//	{
-//		I instance = mPrototypeInstance.get(aPrototype);
-//
-//		if (instance != null)
-//		{
-//			for (Object owner : mInstanceOwners.get(instance).toArray())
-//			{
-//				remove(instance, (O)owner);
-//			}
-//		}
-//	}
+		destroy(aEntry.mPrototype, instance);
+	}
 
 
 	/**
 	 * Return number of instances this class manages.
 	 */
-	public synchronized int size()
+	public int size()
 	{
-		return mInstanceOwners.size();
+		return mInstancePrototype.size();
 	}
 
 
-	public synchronized void clear()
+	public void clear()
 	{
-		for (Object instance : mInstancePrototype.keySet().toArray())
+		for (I instance : mInstancePrototype.keySet())
 		{
-			remove((I)instance);
+			remove(instance);
 		}
 	}
 
@@ -219,30 +217,23 @@ public abstract class SharedResourceFactory<I,P>
 	/**
 	 * Return all instances managed by this object.
 	 */
-	public synchronized Set<I> entries()
+	public Set<I> entries()
 	{
-		return mInstancePrototype.keySet();
+		return Collections.unmodifiableSet(mInstancePrototype.keySet());
 	}
 
 
-	/**
-	 * Return all Owners owning a certain instances managed by this object.
-	 */
-//	public synchronized Set<O> owners(I aInstance)
-//	{
-//		return mInstanceOwners.get(aInstance);
-//	}
-
-
-	public synchronized boolean containsInstance(I aInstance)
+	public boolean containsInstance(I aInstance)
 	{
 		return mInstancePrototype.containsKey(aInstance);
 	}
 
 
-	public synchronized boolean containsPrototype(P aType)
+	public boolean containsPrototype(P aType)
 	{
-		return mPrototypeInstance.containsKey(aType);
+		Entry<I,P> entry = mPrototypeInstance.get(aType);
+
+		return entry != null && entry.isCreated();
 	}
 
 
@@ -252,6 +243,69 @@ public abstract class SharedResourceFactory<I,P>
 	protected abstract void destroy(P aPrototype, I aObject);
 
 
+	/**
+	 * An instance and its reference count. The count is negative once the instance is removed and can then no longer be retained.
+	 */
+	static final class Entry<I,P>
+	{
+		final P mPrototype;
+		final CompletableFuture<I> mInstance;
+		final AtomicInteger mReferences;
+
+
+		Entry(P aPrototype)
+		{
+			mPrototype = aPrototype;
+			mInstance = new CompletableFuture<>();
+			mReferences = new AtomicInteger(1);
+		}
+
+
+		boolean isCreated()
+		{
+			return mInstance.isDone() && !mInstance.isCompletedExceptionally() && mInstance.getNow(null) != null;
+		}
+
+
+		boolean retain()
+		{
+			for (int count; (count = mReferences.get()) >= 0;)
+			{
+				if (mReferences.compareAndSet(count, count + 1))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+
+		/**
+		 * Decrement the count, return true if this was the last reference and the instance should be removed.
+		 */
+		boolean release()
+		{
+			for (int count; (count = mReferences.get()) > 0;)
+			{
+				if (mReferences.compareAndSet(count, count - 1))
+				{
+					return count == 1 && mReferences.compareAndSet(0, -1);
+				}
+			}
+			return false;
+		}
+
+
+		/**
+		 * Mark the instance as removed regardless of references, return false if it already was.
+		 */
+		boolean kill()
+		{
+			return mReferences.getAndSet(-1) >= 0;
+		}
+	}
+
+
 //	public static void main(String... args)
 //	{
 //		try
@@ -3,62 +3,88 @@ package org.terifan.util;
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 
+/**
+ * A map of keys to values shared by subscribers. An entry is created when its first subscriber is added and removed with its last.
+ * <p>
+ * Entries are kept in a ConcurrentHashMap and lookups are lock-free. Changes to the subscribers of a key lock only that entry, and a
+ * reverse index maps each subscriber to its keys. Listeners are called after the change is made, outside of any lock, and may therefore
+ * observe the map in a later state.
+ * </p>
+ */
 public class SubscriberMap<K, V, S> implements Iterable<K>
 {
-	private HashMap<K, Entry> mMap;
-	private BiConsumer<K,V> mEntryAddedListener;
-	private BiConsumer<K,V> mEntryRemovedListener;
-	private BiConsumer<K,S> mSubscriberAddedListener;
-	private BiConsumer<K,S> mSubscriberRemovedListener;
+	private final ConcurrentHashMap<K, Entry> mMap;
+	private final ConcurrentHashMap<S, Set<K>> mSubscriptions;
+	private volatile BiConsumer<K,V> mEntryAddedListener;
+	private volatile BiConsumer<K,V> mEntryRemovedListener;
+	private volatile BiConsumer<K,S> mSubscriberAddedListener;
+	private volatile BiConsumer<K,S> mSubscriberRemovedListener;
 	private Function<K,V> mSupplier;
 
 
 	public SubscriberMap()
 	{
-		mMap = new HashMap<>();
+		mMap = new ConcurrentHashMap<>();
+		mSubscriptions = new ConcurrentHashMap<>();
 	}
 
 
 	public SubscriberMap(Function<K,V> aSupplier)
 	{
 		this();
-		
+
 		mSupplier = aSupplier;
 	}
 
 
-	public synchronized SubscriberMap<K, V, S> add(K aKey, Function<K,V> aSupplier, S aSubscriber)
+	/**
+	 * Subscribe to a key, creating the entry with the supplier if it doesn't exist. The supplier is called at most once per entry.
+	 */
+	public SubscriberMap<K, V, S> add(K aKey, Function<K,V> aSupplier, S aSubscriber)
 	{
-		Entry entry = mMap.computeIfAbsent(aKey, k->new Entry(aSupplier.apply(k)));
-		
-		boolean first = entry.mSet.isEmpty();
-		
-		entry.add(aSubscriber);
-
-		if (first && mEntryAddedListener != null)
+		for (;;)
 		{
-			mEntryAddedListener.accept(aKey, entry.mValue);
-		}
-		if (mSubscriberAddedListener != null)
-		{
-			mSubscriberAddedListener.accept(aKey, aSubscriber);
-		}
+			Entry entry = mMap.computeIfAbsent(aKey, k -> new Entry(aSupplier.apply(k)));
 
-		return this;
+			boolean first;
+
+			synchronized (entry)
+			{
+				if (entry.mRemoved)
+				{
+					continue;
+				}
+
+				first = entry.mSet.isEmpty();
+
+				entry.add(aKey, aSubscriber);
+			}
+
+			if (first && mEntryAddedListener != null)
+			{
+				mEntryAddedListener.accept(aKey, entry.mValue);
+			}
+			if (mSubscriberAddedListener != null)
+			{
+				mSubscriberAddedListener.accept(aKey, aSubscriber);
+			}
+
+			return this;
+		}
 	}
 
-	
-	public synchronized V get(K aKey)
+
+	public V get(K aKey)
 	{
 		Entry entry = mMap.get(aKey);
 
@@ -69,9 +95,9 @@ public class SubscriberMap<K, V, S> implements Iterable<K>
 
 		return null;
 	}
-	
 
-	public synchronized SubscriberMap<K, V, S> subscribe(K aKey, S aSubscriber)
+
+	public SubscriberMap<K, V, S> subscribe(K aKey, S aSubscriber)
 	{
 		Entry entry = mMap.get(aKey);
 
@@ -80,7 +106,15 @@ public class SubscriberMap<K, V, S> implements Iterable<K>
 			throw new IllegalArgumentException("Key not found: " + aKey);
 		}
 
-		entry.add(aSubscriber);
+		synchronized (entry)
+		{
+			if (entry.mRemoved)
+			{
+				throw new IllegalArgumentException("Key not found: " + aKey);
+			}
+
+			entry.add(aKey, aSubscriber);
+		}
 
 		if (mSubscriberAddedListener != null)
 		{
@@ -91,41 +125,75 @@ public class SubscriberMap<K, V, S> implements Iterable<K>
 	}
 
 
-	public synchronized SubscriberMap<K, V, S> unsubscribe(K aKey, S aSubscriber)
+	public SubscriberMap<K, V, S> unsubscribe(K aKey, S aSubscriber)
 	{
 		Entry entry = mMap.get(aKey);
 
 		if (entry != null)
 		{
-			if (mSubscriberRemovedListener != null)
-			{
-				mSubscriberRemovedListener.accept(aKey, aSubscriber);
-			}
+			boolean removed;
+			boolean empty;
 
-			if (entry.remove(aSubscriber))
+			synchronized (entry)
 			{
-				mMap.remove(aKey);
+				if (entry.mRemoved)
+				{
+					return this;
+				}
+
+				removed = entry.remove(aKey, aSubscriber);
+				empty = entry.mSet.isEmpty();
 
-				if (mEntryRemovedListener != null)
+				if (empty)
 				{
-					mEntryRemovedListener.accept(aKey, entry.mValue);
+					entry.mRemoved = true;
+					mMap.remove(aKey, entry);
 				}
 			}
+
+			if (removed && mSubscriberRemovedListener != null)
+			{
+				mSubscriberRemovedListener.accept(aKey, aSubscriber);
+			}
+			if (empty && mEntryRemovedListener != null)
+			{
+				mEntryRemovedListener.accept(aKey, entry.mValue);
+			}
 		}
-		
+
 		return this;
 	}
 
 
-	public synchronized SubscriberMap<K, V, S> unsubscribeAll(K aKey)
+	public SubscriberMap<K, V, S> unsubscribeAll(K aKey)
 	{
-		Entry entry = mMap.remove(aKey);
+		Entry entry = mMap.get(aKey);
 
 		if (entry != null)
 		{
+			ArrayList<S> subscribers;
+
+			synchronized (entry)
+			{
+				if (entry.mRemoved)
+				{
+					return this;
+				}
+
+				entry.mRemoved = true;
+				mMap.remove(aKey, entry);
+
+				subscribers = new ArrayList<>(entry.mSet);
+
+				for (S subscriber : subscribers)
+				{
+					entry.remove(aKey, subscriber);
+				}
+			}
+
 			if (mSubscriberRemovedListener != null)
 			{
-				for (S subscriber : entry.mSet)
+				for (S subscriber : subscribers)
 				{
 					mSubscriberRemovedListener.accept(aKey, subscriber);
 				}
@@ -136,80 +204,84 @@ public class SubscriberMap<K, V, S> implements Iterable<K>
 				mEntryRemovedListener.accept(aKey, entry.mValue);
 			}
 		}
-		
+
 		return this;
 	}
 
 
-	public synchronized SubscriberMap<K, V, S> clear()
+	public SubscriberMap<K, V, S> clear()
 	{
-		for (Object key : mMap.keySet().toArray())
+		for (K key : mMap.keySet())
 		{
-			unsubscribeAll((K)key);
+			unsubscribeAll(key);
 		}
-		
+
 		return this;
 	}
 
 
-	public synchronized Set<K> keySet()
+	public Set<K> keySet()
 	{
-		return mMap.keySet();
+		return Collections.unmodifiableSet(mMap.keySet());
 	}
 
 
 	@Override
-	public synchronized Iterator<K> iterator()
+	public Iterator<K> iterator()
 	{
-		return mMap.keySet().iterator();
+		return keySet().iterator();
 	}
 
 
 	/**
 	 * Returns a Set of subscribers of the key specified.
 	 */
-	public synchronized Set<S> subscribersOf(K aKey)
+	public Set<S> subscribersOf(K aKey)
 	{
-		return Collections.unmodifiableSet(mMap.get(aKey).mSet);
+		Entry entry = mMap.get(aKey);
+
+		if (entry == null)
+		{
+			return Collections.emptySet();
+		}
+
+		return Collections.unmodifiableSet(entry.mSet);
 	}
 
 
 	/**
 	 * Returns a List of keys the subscriber specified is linked to.
 	 */
-	public synchronized List<K> subscribedBy(S aSubscriber)
+	public List<K> subscribedBy(S aSubscriber)
 	{
-		ArrayList<K> keys = new ArrayList<>();
-		
-		for (K key : this)
+		Set<K> keys = mSubscriptions.get(aSubscriber);
+
+		if (keys == null)
 		{
-			if (mMap.get(key).mSet.contains(aSubscriber))
-			{
-				keys.add(key);
-			}
+			return new ArrayList<>();
 		}
 
-		return keys;
+		return new ArrayList<>(keys);
 	}
 
 
-	public synchronized boolean containsKey(K aKey)
+	public boolean containsKey(K aKey)
 	{
 		return mMap.containsKey(aKey);
 	}
 
-	
+
 	public int size()
 	{
 		return mMap.size();
 	}
 
-	
+
 	public boolean isEmpty()
 	{
 		return mMap.isEmpty();
 	}
-	
+
 
 	@Override
 	public String toString()
@@ -245,35 +317,32 @@ public class SubscriberMap<K, V, S> implements Iterable<K>
 		return this;
 	}
 
-	
-	public synchronized Lease<K,V> lease(K aKey, Function<K,V> aSupplier, S aSubscriber)
+
+	/**
+	 * Subscribe to a key, creating the entry if it doesn't exist, and return a Lease that unsubscribes when closed. The subscriber is
+	 * always added to a live entry, but a concurrent <code>unsubscribeAll</code> of the key may remove the entry, and the subscription
+	 * with it, before the lease is returned.
+	 */
+	public Lease<K,V> lease(K aKey, Function<K,V> aSupplier, S aSubscriber)
 	{
-		Entry entry = mMap.get(aKey);
-		
-		if (entry == null)
-		{
-			add(aKey, aSupplier, aSubscriber);
-		}
-		else
-		{
-			subscribe(aKey, aSubscriber);
-		}
+		add(aKey, aSupplier, aSubscriber);
 
 		return new Lease<>(this, aKey, aSubscriber);
 	}
 
-	
-	public synchronized Lease<K, V> lease(K aKey, S aSubscriber)
+
+	public Lease<K, V> lease(K aKey, S aSubscriber)
 	{
 		return lease(aKey, mSupplier, aSubscriber);
 	}
 
-	
+
 	public static class Lease<K,V> implements Closeable
 	{
-		private K mKey;
-		private Object mSubscriber;
-		private SubscriberMap mMap;
+		private final K mKey;
+		private final Object mSubscriber;
+		private final SubscriberMap mMap;
+		private final AtomicBoolean mClosed;
 
 
 		public Lease(SubscriberMap aMap, K aKey, Object aSubscriber)
@@ -281,6 +350,7 @@ public class SubscriberMap<K, V, S> implements Iterable<K>
 			mMap = aMap;
 			mKey = aKey;
 			mSubscriber = aSubscriber;
+			mClosed = new AtomicBoolean();
 		}
 
 
@@ -296,34 +366,65 @@ public class SubscriberMap<K, V, S> implements Iterable<K>
 		}
 
 
+		/**
+		 * Unsubscribe, closing a lease more than once has no effect.
+		 */
 		@Override
 		public void close()
 		{
-			mMap.unsubscribe(mKey, mSubscriber);
+			if (mClosed.compareAndSet(false, true))
+			{
+				mMap.unsubscribe(mKey, mSubscriber);
+			}
 		}
 	}
-	
 
+
+	/**
+	 * An entry and its subscribers. Subscribers are changed while holding the entry monitor, the set itself may be read without it.
+	 */
 	public class Entry
 	{
-		V mValue;
-		HashSet<S> mSet;
-		
+		final V mValue;
+		final Set<S> mSet;
+		boolean mRemoved;
+
 		public Entry(V aValue)
 		{
 			mValue = aValue;
-			mSet = new HashSet<>();
+			mSet = ConcurrentHashMap.newKeySet();
 		}
-		
-		synchronized void add(S aSubscriber)
+
+		void add(K aKey, S aSubscriber)
 		{
-			mSet.add(aSubscriber);
+			if (mSet.add(aSubscriber))
+			{
+				mSubscriptions.compute(aSubscriber, (s, keys) ->
+				{
+					if (keys == null)
+					{
+						keys = ConcurrentHashMap.newKeySet();
+					}
+					keys.add(aKey);
+					return keys;
+				});
+			}
 		}
-		
-		synchronized boolean remove(S aSubscriber)
+
+		boolean remove(K aKey, S aSubscriber)
 		{
-			mSet.remove(aSubscriber);
-			return mSet.isEmpty();
+			if (!mSet.remove(aSubscriber))
+			{
+				return false;
+			}
+
+			mSubscriptions.computeIfPresent(aSubscriber, (s, keys) ->
+			{
+				keys.remove(aKey);
+				return keys.isEmpty() ? null : keys;
+			});
+
+			return true;
 		}
 
 
@@ -333,8 +434,8 @@ public class SubscriberMap<K, V, S> implements Iterable<K>
 			return "{" + mValue + ", " + mSet + '}';
 		}
 	}
-	
-	
+
+
 	public static void xmain(String... args)
 	{
 		try
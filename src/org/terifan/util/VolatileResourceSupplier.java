@@ -1,21 +1,35 @@
 package org.terifan.util;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-
+import org.terifan.util.executors.DaemonThreadPool;
+import org.terifan.util.executors.TimerWheel;
+
+
+/**
+ * Supplies a resource that is created on first use and released when it hasn't been used for a while.
+ * <p>
+ * Release deadlines of all suppliers are tracked by the shared TimerWheel and expired resources are released on the shared
+ * DaemonThreadPool. A supplier only has a pending timeout while its resource is unused. Once the resource exists it is acquired without
+ * taking the supplier monitor, the read-write lock keeps the resource from being released while in use.
+ * </p>
+ */
 public abstract class VolatileResourceSupplier<T> implements AutoCloseable
 {
-	private T mInstance;
-	private long mLockCount;
-	private ReentrantReadWriteLock mLock;
-	private long mExpireTime;
-	private CleanerThread mCleaner;
+	private volatile T mInstance;
+	private final AtomicLong mLockCount;
+	private final ReentrantReadWriteLock mLock;
+	private volatile long mExpireTime;
+	private final AtomicBoolean mEvictionScheduled;
 	private long mReleaseDelay;
 
 
 	public VolatileResourceSupplier()
 	{
 		mLock = new ReentrantReadWriteLock();
+		mLockCount = new AtomicLong();
+		mEvictionScheduled = new AtomicBoolean();
 		mReleaseDelay = 1000;
 	}
 
@@ -69,15 +83,7 @@ public abstract class VolatileResourceSupplier<T> implements AutoCloseable
 	{
 		mLock.readLock().lock();
 
-		synchronized (this)
-		{
-			if (mInstance == null)
-			{
-				mInstance = create();
-			}
-		}
-
-		return new VolatileResource(this, false);
+		return open(false);
 	}
 
 
@@ -91,36 +97,62 @@ public abstract class VolatileResourceSupplier<T> implements AutoCloseable
 	{
 		mLock.writeLock().lock();
 
-		synchronized (this)
+		return open(true);
+	}
+
+
+	/**
+	 * Count a user holding the lock and create the resource unless it exists.
+	 */
+	private VolatileResource<T> open(boolean aWrite) throws Exception
+	{
+		mLockCount.incrementAndGet();
+
+		if (mInstance == null)
 		{
-			if (mInstance == null)
+			try
 			{
-				mInstance = create();
+				synchronized (this)
+				{
+					if (mInstance == null)
+					{
+						mInstance = create();
+					}
+				}
+			}
+			catch (Exception | Error e)
+			{
+				release(aWrite);
+				throw e;
 			}
 		}
 
-		return new VolatileResource(this, true);
+		return new VolatileResource(this, aWrite);
 	}
 
 
 	/**
-	 * Immediately releases a resource if one exists.
+	 * Immediately releases a resource if one exists. Waits for current users to close their resources.
+	 *
+	 * @throws IllegalStateException
+	 *   if the calling thread holds a resource acquired for reading, waiting for it would never end
 	 */
 	@Override
-	public synchronized void close() throws Exception
+	public void close() throws Exception
 	{
-		if (mCleaner != null)
+		if (mLock.getReadHoldCount() > 0)
 		{
-			synchronized (mCleaner)
-			{
-				mCleaner.interrupt();
-			}
+			throw new IllegalStateException("Close the resources acquired by this thread before closing the supplier.");
 		}
-		else if (mInstance != null)
+
+		mLock.writeLock().lock();
+		try
 		{
-			release(mInstance);
-			mInstance = null;
-			mCleaner = null;
+			evict();
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
 		}
 	}
 
@@ -133,6 +165,8 @@ public abstract class VolatileResourceSupplier<T> implements AutoCloseable
 
 	void release(boolean aWrite) throws Exception
 	{
+		long count = mLockCount.decrementAndGet();
+
 		if (aWrite)
 		{
 			mLock.writeLock().unlock();
@@ -142,57 +176,68 @@ public abstract class VolatileResourceSupplier<T> implements AutoCloseable
 			mLock.readLock().unlock();
 		}
 
-		synchronized (this)
+		if (count == 0)
 		{
-			mLockCount--;
-			if (mLockCount == 0)
+			mExpireTime = System.currentTimeMillis() + mReleaseDelay;
+
+			if (mEvictionScheduled.compareAndSet(false, true))
 			{
-				if (mCleaner == null)
-				{
-					mCleaner = new CleanerThread();
-					mCleaner.start();
-				}
-				mExpireTime = System.currentTimeMillis() + mReleaseDelay;
+				schedule(mReleaseDelay);
 			}
 		}
 	}
 
 
-	private class CleanerThread extends Thread
+	private void schedule(long aDelay)
 	{
-		@Override
-		public void run()
+		TimerWheel.shared().schedule(aDelay, () -> DaemonThreadPool.shared().execute(this::expire));
+	}
+
+
+	/**
+	 * Release the resource if the deadline has passed and nobody uses it, otherwise wait for the new deadline.
+	 */
+	private void expire()
+	{
+		long remaining = mExpireTime - System.currentTimeMillis();
+
+		if (remaining > 0)
+		{
+			schedule(remaining);
+			return;
+		}
+
+		mEvictionScheduled.set(false);
+
+		if (mLockCount.get() == 0 && mLock.writeLock().tryLock())
 		{
 			try
 			{
-				synchronized (mCleaner)
+				if (mLockCount.get() == 0)
 				{
-					mCleaner.wait(mExpireTime - System.currentTimeMillis());
+					evict();
 				}
 			}
-			catch (InterruptedException e)
+			catch (Exception e)
 			{
+				e.printStackTrace(System.out);
 			}
-
-			synchronized (VolatileResourceSupplier.this)
+			finally
 			{
-				if (mLockCount == 0)
-				{
-					if (mInstance != null)
-					{
-						try
-						{
-							release(mInstance);
-							mInstance = null;
-							mCleaner = null;
-						}
-						catch (Exception e)
-						{
-							e.printStackTrace(System.out);
-						}
-					}
-				}
+				mLock.writeLock().unlock();
 			}
 		}
 	}
+
+
+	private synchronized void evict() throws Exception
+	{
+		T instance = mInstance;
+
+		if (instance != null)
+		{
+			mInstance = null;
+			release(instance);
+		}
+	}
 }
@@ -1,27 +1,48 @@
 package org.terifan.util.concurrent;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-
-
+import org.terifan.util.executors.DaemonThreadPool;
+
+
+/**
+ * An AsyncTask runs in the background on a lane. Each lane has a parallelism and starts its tasks in the order they were executed, a lane
+ * with parallelism one runs its tasks strictly one after another. Tasks executed without a lane run on the default lane which has
+ * parallelism one.
+ *
+ * <pre>
+ * AsyncTask.getLane("cpu").setParallelism(Runtime.getRuntime().availableProcessors());
+ * new RenderTask().executeOn("cpu", tile);
+ * AsyncTask.execute("io", () -&gt; save(file));
+ * </pre>
+ * <p>
+ * All lanes share the DaemonThreadPool, idle threads are released after a minute. Each task signals its own completion, a thread
+ * blocked in <code>get</code> wakes up as soon as the task has finished.
+ * </p>
+ */
 public abstract class AsyncTask<Param, Progress, Result>
 {
-	private static final Object LOCK = new Object();
+	private final static ConcurrentHashMap<String, Lane> LANES = new ConcurrentHashMap<>();
+	private final static String DEFAULT_LANE = "default";
 
 	private static Consumer<Throwable> mGlobalExceptionHandler = e -> e.printStackTrace(System.err);
-	private static ExecutorService mExecutor;
 
-	private boolean mCancelled;
-	private boolean mFinished;
-	private Result mResult;
+	private final CountDownLatch mFinished;
+	private volatile boolean mCancelled;
+	private volatile Result mResult;
 
 
 	protected AsyncTask()
 	{
+		mFinished = new CountDownLatch(1);
 	}
 
 
@@ -31,10 +52,35 @@ public abstract class AsyncTask<Param, Progress, Result>
 	}
 
 
+	/**
+	 * Return the lane with the name, a new lane has parallelism one.
+	 */
+	public static Lane getLane(String aName)
+	{
+		Lane lane = LANES.get(aName);
+
+		if (lane == null)
+		{
+			lane = LANES.computeIfAbsent(aName, Lane::new);
+		}
+
+		return lane;
+	}
+
+
 	/**
 	 * Convenience version of execute to run a Runnable in the background.
 	 */
 	public static void execute(Runnable aTask)
+	{
+		execute(DEFAULT_LANE, aTask);
+	}
+
+
+	/**
+	 * Convenience version of execute to run a Runnable in the background on the lane.
+	 */
+	public static void execute(String aLane, Runnable aTask)
 	{
 		AsyncTask task = new AsyncTask()
 		{
@@ -45,7 +91,7 @@ public abstract class AsyncTask<Param, Progress, Result>
 				return null;
 			}
 		};
-		task.execute();
+		task.executeOn(aLane, null);
 	}
 
 
@@ -65,6 +111,18 @@ public abstract class AsyncTask<Param, Progress, Result>
 	 */
 	public final AsyncTask execute(Param aParam)
 	{
+		return executeOn(DEFAULT_LANE, aParam);
+	}
+
+
+	/**
+	 * Add this AsyncTask to the queue of the lane. When the AsyncTask is executed, methods onPreExecute, doInBackground, onPostExecute
+	 * are called in that order.
+	 */
+	public final AsyncTask executeOn(String aLane, Param aParam)
+	{
+		Lane lane = getLane(aLane);
+
 		Task task = () ->
 		{
 			try
@@ -83,7 +141,9 @@ public abstract class AsyncTask<Param, Progress, Result>
 					return;
 				}
 
-				onPostExecute(doInBackground(aParam));
+				mResult = doInBackground(aParam);
+
+				onPostExecute(mResult);
 			}
 			catch (Throwable e)
 			{
@@ -98,38 +158,12 @@ public abstract class AsyncTask<Param, Progress, Result>
 			}
 			finally
 			{
-				synchronized (LOCK)
-				{
-					mFinished = true;
-					LOCK.notify();
-				}
+				lane.mPending.remove(this);
+				mFinished.countDown();
 			}
 		};
 
-		synchronized (LOCK)
-		{
-			if (mExecutor == null || mExecutor.isShutdown() || mExecutor.isTerminated())
-			{
-				mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, (BlockingQueue<Runnable>)new LinkedBlockingQueue())
-				{
-					@Override
-					protected void afterExecute(Runnable aRunnable, Throwable aThrowable)
-					{
-						if (getQueue().isEmpty())
-						{
-							synchronized (LOCK)
-							{
-								if (mExecutor != null)
-								{
-									mExecutor.shutdown();
-								}
-							}
-						}
-					}
-				};
-			}
-			mExecutor.submit(task::run);
-		}
+		lane.submit(this, task);
 
 		return this;
 	}
@@ -234,49 +268,142 @@ public abstract class AsyncTask<Param, Progress, Result>
 	 */
 	public Result get(long aTimeOut, TimeUnit aTimeUnit)
 	{
-		long millis = aTimeUnit.toMillis(aTimeOut);
-
-		for (long startTime = System.currentTimeMillis(); millis > System.currentTimeMillis() - startTime;)
+		try
 		{
-			synchronized (LOCK)
-			{
-				if (mFinished)
-				{
-					return mResult;
-				}
-				try
-				{
-					LOCK.wait(1000);
-				}
-				catch (InterruptedException ex)
-				{
-				}
-			}
+			mFinished.await(aTimeOut, aTimeUnit);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
 		}
 		return mResult;
 	}
 
 
 	/**
-	 * Waits if necessary until the currently queued tasks have been finished. Other threads can still enqueue new tasks.
+	 * Waits if necessary until the currently queued tasks of all lanes have been finished. Other threads can still enqueue new tasks.
 	 */
 	public static void waitFor()
 	{
-		ExecutorService prev;
-		synchronized (LOCK)
+		ArrayList<AsyncTask<?, ?, ?>> tasks = new ArrayList<>();
+
+		for (Lane lane : LANES.values())
 		{
-			prev = mExecutor;
-			mExecutor = null;
+			tasks.addAll(lane.mPending);
 		}
-		if (prev != null)
+
+		for (AsyncTask<?, ?, ?> task : tasks)
 		{
 			try
 			{
-				prev.shutdown();
-				prev.awaitTermination(1, TimeUnit.DAYS);
+				task.mFinished.await();
 			}
-			catch (Exception e)
+			catch (InterruptedException e)
 			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * A named queue of tasks. At most <i>parallelism</i> tasks of a lane are running at any time and tasks are started in the order they
+	 * were executed.
+	 */
+	public static final class Lane
+	{
+		private final String mName;
+		private final ConcurrentLinkedQueue<Runnable> mQueue;
+		private final Set<AsyncTask<?, ?, ?>> mPending;
+		private final AtomicInteger mWorkers;
+		private volatile int mParallelism;
+
+
+		private Lane(String aName)
+		{
+			mName = aName;
+			mQueue = new ConcurrentLinkedQueue<>();
+			mPending = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+			mWorkers = new AtomicInteger();
+			mParallelism = 1;
+		}
+
+
+		public String getName()
+		{
+			return mName;
+		}
+
+
+		public int getParallelism()
+		{
+			return mParallelism;
+		}
+
+
+		/**
+		 * Set the maximum number of tasks of this lane running at the same time.
+		 */
+		public Lane setParallelism(int aParallelism)
+		{
+			if (aParallelism < 1)
+			{
+				throw new IllegalArgumentException();
+			}
+
+			mParallelism = aParallelism;
+			startWorkers();
+			return this;
+		}
+
+
+		/**
+		 * Return number of tasks queued or running.
+		 */
+		public int size()
+		{
+			return mPending.size();
+		}
+
+
+		private void submit(AsyncTask<?, ?, ?> aTask, Runnable aRunnable)
+		{
+			mPending.add(aTask);
+			mQueue.add(aRunnable);
+			startWorkers();
+		}
+
+
+		private void startWorkers()
+		{
+			for (int n; !mQueue.isEmpty() && (n = mWorkers.get()) < mParallelism;)
+			{
+				if (mWorkers.compareAndSet(n, n + 1))
+				{
+					DaemonThreadPool.shared().execute(this::drain);
+				}
+			}
+		}
+
+
+		private void drain()
+		{
+			for (;;)
+			{
+				for (Runnable task; mWorkers.get() <= mParallelism && (task = mQueue.poll()) != null;)
+				{
+					task.run();
+				}
+
+				mWorkers.decrementAndGet();
+
+				// a task may have been queued after the poll above, resume unless other workers are handling it
+				int n = mWorkers.get();
+				if (mQueue.isEmpty() || n >= mParallelism || !mWorkers.compareAndSet(n, n + 1))
+				{
+					return;
+				}
 			}
 		}
 	}
@@ -1,8 +1,18 @@
 package org.terifan.util.concurrent;
 
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.StampedLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.terifan.util.executors.DaemonThreadPool;
 
 
 /**
@@ -14,19 +24,45 @@ import java.util.concurrent.locks.StampedLock;
  *	Computer<String> b = new Computer<>(() -> "b");
  *	System.out.println(a.get() + b.get());
  * </pre>
+ * <p>
+ * Computations run on virtual threads unless a group provides another executor. Computers created in a <code>Group</code> share its
+ * lifetime: the group can be cancelled as a whole, the first failure cancels the other computers of the group and closing the group
+ * cancels any unfinished computer and waits for it to stop.
+ * </p>
+ * <pre>
+ *	try (Computer.Group group = new Computer.Group(true))
+ *	{
+ *		Computer<String> a = new Computer<>(group, () -> fetch("a"));
+ *		Computer<String> b = new Computer<>(group, () -> fetch("b"));
+ *		group.join(5000);
+ *		System.out.println(a.get() + b.get());
+ *	}
+ * </pre>
  */
 public class Computer<T>
 {
-	private T mValue;
-	private ReadWriteLock mLock;
-	private Exception mException;
+	private final static ExecutorService VIRTUAL_POOL = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final Group mGroup;
+	private final Executor mExecutor;
 	private Callable<T> mCallable;
+	private volatile Execution mExecution;
 
 
 	public Computer(Callable<T> aCallable)
 	{
+		this(null, aCallable);
+	}
+
+
+	/**
+	 * Create a computer belonging to the group, or to no group if null.
+	 */
+	public Computer(Group aGroup, Callable<T> aCallable)
+	{
+		mGroup = aGroup;
+		mExecutor = aGroup != null ? aGroup.mExecutor : VIRTUAL_POOL;
 		mCallable = aCallable;
-		mLock = new StampedLock().asReadWriteLock();
 		compute();
 	}
 
@@ -35,25 +71,73 @@ public class Computer<T>
 	 * Blocks until the Callable provided in the constructor has produced a value and return the value.
 	 *
 	 * @return the value produced by the Callable provided in the constructor.
+	 * @throws IllegalStateException if the Callable failed
+	 * @throws java.util.concurrent.CancellationException if the computer was cancelled
 	 */
 	public T get()
 	{
 		try
 		{
-			mLock.readLock().lock();
-			if (mException != null)
-			{
-				throw new IllegalStateException(mException);
-			}
-			return mValue;
+			return execution().get();
 		}
-		finally
+		catch (ExecutionException e)
 		{
-			mLock.readLock().unlock();
+			throw new IllegalStateException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
 		}
 	}
 
 
+	/**
+	 * Blocks until the Callable provided in the constructor has produced a value or the time has passed.
+	 *
+	 * @return the value produced by the Callable provided in the constructor.
+	 * @throws IllegalStateException if the Callable failed or, with a TimeoutException as cause, if the time passed
+	 * @throws java.util.concurrent.CancellationException if the computer was cancelled
+	 */
+	public T get(long aTimeoutMillis)
+	{
+		try
+		{
+			return execution().get(aTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch (TimeoutException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Cancel the computation interrupting the thread computing it.
+	 *
+	 * @return false if the value had already been computed
+	 */
+	public boolean cancel()
+	{
+		return execution().cancel(true);
+	}
+
+
+	public boolean isDone()
+	{
+		return execution().isDone();
+	}
+
+
 	/**
 	 * Invokes the Callable provided in the constructor and return the result via the <code>get</code> method.
 	 * <br/>
@@ -79,36 +163,299 @@ public class Computer<T>
 		}
 		finally
 		{
-			mLock = null;
 			mCallable = null;
-			mException = null;
-			mValue = null;
+			mExecution = null;
 		}
 	}
 
 
 	protected void compute()
 	{
-		mLock.writeLock().lock();
-		new Thread()
+		if (mCallable == null)
 		{
-			@Override
-			public void run()
+			throw new IllegalStateException("Computer has finished");
+		}
+
+		Execution execution = new Execution(mCallable);
+		mExecution = execution;
+
+		if (mGroup != null)
+		{
+			mGroup.register(execution);
+		}
+
+		try
+		{
+			mExecutor.execute(execution);
+		}
+		catch (RuntimeException e)
+		{
+			execution.reject(e);
+			throw e;
+		}
+	}
+
+
+	private Execution execution()
+	{
+		Execution execution = mExecution;
+
+		if (execution == null)
+		{
+			throw new IllegalStateException("Computer has finished");
+		}
+
+		return execution;
+	}
+
+
+	private class Execution extends FutureTask<T>
+	{
+		Execution(Callable<T> aCallable)
+		{
+			super(aCallable);
+		}
+
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				super.run();
+			}
+			finally
+			{
+				if (mGroup != null)
+				{
+					mGroup.exited(this);
+				}
+			}
+		}
+
+
+		/**
+		 * The executor refused the execution, complete it with the failure so neither the computer nor the group waits for it.
+		 */
+		void reject(RuntimeException aException)
+		{
+			setException(aException);
+
+			if (mGroup != null)
+			{
+				mGroup.exited(this);
+			}
+		}
+
+
+		@Override
+		protected void done()
+		{
+			if (mGroup != null && !isCancelled())
 			{
 				try
 				{
-					mValue = mCallable.call();
+					get();
 				}
-				catch (Exception e)
+				catch (ExecutionException e)
 				{
-					mException = e;
+					mGroup.fail(e.getCause());
 				}
-				finally
+				catch (InterruptedException e)
 				{
-					mLock.writeLock().unlock();
+					// the task is done, get does not block
 				}
 			}
-		}.start();
+		}
+	}
+
+
+	/**
+	 * A scope for computers. The group runs its computers on virtual threads or on the shared pool, a failure of one computer cancels
+	 * the others. Closing the group cancels unfinished computers and waits until they have stopped.
+	 */
+	public static class Group implements AutoCloseable
+	{
+		private final Executor mExecutor;
+		private final Set<FutureTask<?>> mExecutions;
+		private final AtomicInteger mActive;
+		private final AtomicReference<Throwable> mFailure;
+		private volatile boolean mCancelled;
+
+
+		/**
+		 * Create a group running its computers on virtual threads.
+		 */
+		public Group()
+		{
+			this(true);
+		}
+
+
+		/**
+		 * @param aVirtualThreads
+		 *   run the computers of the group on virtual threads, suitable for computations blocked on I/O. If false the computers run on the
+		 *   shared DaemonThreadPool, which creates a platform thread for each concurrent computation.
+		 */
+		public Group(boolean aVirtualThreads)
+		{
+			this(aVirtualThreads ? VIRTUAL_POOL : DaemonThreadPool.shared());
+		}
+
+
+		public Group(Executor aExecutor)
+		{
+			mExecutor = aExecutor;
+			mExecutions = ConcurrentHashMap.newKeySet();
+			mActive = new AtomicInteger();
+			mFailure = new AtomicReference<>();
+		}
+
+
+		/**
+		 * Cancel all unfinished computers of the group and any computer created later.
+		 */
+		public void cancel()
+		{
+			mCancelled = true;
+
+			for (FutureTask<?> execution : mExecutions)
+			{
+				execution.cancel(true);
+			}
+		}
+
+
+		public boolean isCancelled()
+		{
+			return mCancelled;
+		}
+
+
+		/**
+		 * Return the first failure of a computer in the group or null.
+		 */
+		public Throwable getFailure()
+		{
+			return mFailure.get();
+		}
+
+
+		/**
+		 * Blocks until all computers of the group have stopped.
+		 *
+		 * @throws IllegalStateException if a computer failed
+		 */
+		public void join()
+		{
+			await(-1);
+		}
+
+
+		/**
+		 * Blocks until all computers of the group have stopped. If the time passes the group is cancelled.
+		 *
+		 * @throws IllegalStateException if a computer failed or, with a TimeoutException as cause, if the time passed
+		 */
+		public void join(long aTimeoutMillis)
+		{
+			await(Math.max(0, aTimeoutMillis));
+		}
+
+
+		@Override
+		public void close()
+		{
+			cancel();
+
+			try
+			{
+				await(-1);
+			}
+			catch (IllegalStateException e)
+			{
+				// failures are reported by join
+			}
+		}
+
+
+		private void await(long aTimeoutMillis)
+		{
+			long deadline = System.currentTimeMillis() + aTimeoutMillis;
+
+			try
+			{
+				synchronized (this)
+				{
+					while (mActive.get() > 0)
+					{
+						if (aTimeoutMillis < 0)
+						{
+							wait();
+						}
+						else
+						{
+							long remaining = deadline - System.currentTimeMillis();
+
+							if (remaining <= 0)
+							{
+								cancel();
+								throw new IllegalStateException(new TimeoutException());
+							}
+
+							wait(remaining);
+						}
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+
+			Throwable failure = mFailure.get();
+
+			if (failure != null)
+			{
+				throw new IllegalStateException(failure);
+			}
+		}
+
+
+		private void register(FutureTask<?> aExecution)
+		{
+			mActive.incrementAndGet();
+			mExecutions.add(aExecution);
+
+			if (mCancelled)
+			{
+				aExecution.cancel(false);
+			}
+		}
+
+
+		private void exited(FutureTask<?> aExecution)
+		{
+			mExecutions.remove(aExecution);
+
+			if (mActive.decrementAndGet() == 0)
+			{
+				synchronized (this)
+				{
+					notifyAll();
+				}
+			}
+		}
+
+
+		private void fail(Throwable aFailure)
+		{
+			if (mFailure.compareAndSet(null, aFailure))
+			{
+				cancel();
+			}
+		}
 	}
 
 
@@ -1,18 +1,63 @@
 package org.terifan.util.concurrent;
 
 import java.lang.management.ManagementFactory;
+import java.util.OptionalLong;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongToDoubleFunction;
+import java.util.function.LongUnaryOperator;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
 import java.util.function.Supplier;
-
-
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+
+/**
+ * Parallel loops over ranges. All loops run on a shared ForkJoinPool sized to the number of processors. A range is split recursively
+ * in halves until a part is no larger than the grain size and the calling thread takes part in the work. An exception thrown by the
+ * consumer is rethrown to the caller.
+ *
+ * <pre>
+ * Parallel.range(0, width * height).forEach(i -&gt; pixels[i] = filter(pixels[i]));
+ * Parallel.range(0L, 10_000_000_000L).grain(1_000_000).forEach(i -&gt; test(i));
+ * </pre>
+ * <p>
+ * The default grain size splits a range in about 1024 parts, set a larger grain when the work per index is very small.
+ * </p>
+ * <p>
+ * Ranges are handled as a start and a count of indices so a range may end at <code>Long.MAX_VALUE</code> inclusive. The only range that
+ * cannot be represented is <code>rangeClosed(Long.MIN_VALUE, Long.MAX_VALUE)</code> which is rejected.
+ * </p>
+ * <p>
+ * Reductions fold each part into its own accumulator and combine the accumulators pairwise in index order. The parts depend only on the
+ * range and the grain size, never on the number of threads, so results such as floating point sums are repeatable.
+ * </p>
+ * <pre>
+ * long count = Parallel.range(0, values.length).sum(i -&gt; values[i] &gt; limit ? 1 : 0);
+ * List&lt;String&gt; names = Parallel.range(0, 100).mapToObj(i -&gt; "item" + i).collect(Collectors.toList());
+ * </pre>
+ */
 public class Parallel
 {
+	private final static ForkJoinPool POOL = new ForkJoinPool(ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors());
+	private final static int DEFAULT_PARTS = 1024;
+
+
 	private Parallel()
 	{
 	}
@@ -42,31 +87,274 @@ public class Parallel
 	}
 
 
+	public static ParallelLong range(long aFrom, long aToExclusive)
+	{
+		return new ParallelLong(aFrom, aToExclusive, false);
+	}
+
+
+	public static ParallelLong rangeClosed(long aFrom, long aToInclusive)
+	{
+		return new ParallelLong(aFrom, aToInclusive, true);
+	}
+
+
 	/**
+	 * Runs the Runnables in parallel and blocks until all have finished.
+	 *
+	 * <pre>
 	 * 	Parallel.of(
 	 *		()->{System.out.println(1);},
 	 *		()->{System.out.println(2);},
 	 *		()->{System.out.println(3);},
 	 *	);
+	 * </pre>
 	 */
 	public static void of(Runnable... aRunnables)
 	{
-		int cpu = ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
+		invoke(0, aRunnables.length, 1, (aFrom, aCount) ->
+		{
+			for (int i = (int)aFrom, to = (int)aCount + i; i != to; i++)
+			{
+				aRunnables[i].run();
+			}
+		});
+	}
+
+
+	/**
+	 * Run the leaf over the range in parallel. The count is unsigned. Leaf parts are at most the grain size, zero or negative selects the
+	 * default.
+	 */
+	private static void invoke(long aFrom, long aCount, long aGrain, Leaf aLeaf)
+	{
+		if (aCount == 0)
+		{
+			return;
+		}
+
+		RangeTask task = new RangeTask(aFrom, aCount, grain(aCount, aGrain), aLeaf);
+
+		if (ForkJoinTask.inForkJoinPool())
+		{
+			task.invoke();
+		}
+		else
+		{
+			POOL.invoke(task);
+		}
+	}
+
+
+	private static long grain(long aCount, long aGrain)
+	{
+		return aGrain > 0 ? aGrain : Math.max(1, Long.divideUnsigned(aCount, DEFAULT_PARTS) + (Long.remainderUnsigned(aCount, DEFAULT_PARTS) == 0 ? 0 : 1));
+	}
+
+
+	/**
+	 * Fold the range in parallel into accumulators created by the supplier, combining them pairwise in index order.
+	 */
+	private static <A> A fold(long aFrom, long aCount, long aGrain, Supplier<A> aSupplier, Fold<A> aFold, BinaryOperator<A> aCombiner)
+	{
+		if (aCount == 0)
+		{
+			return aSupplier.get();
+		}
+
+		FoldTask<A> task = new FoldTask<>(aFrom, aCount, grain(aCount, aGrain), aSupplier, aFold, aCombiner);
+
+		if (ForkJoinTask.inForkJoinPool())
+		{
+			return task.invoke();
+		}
+
+		return POOL.invoke(task);
+	}
+
+
+	private static long reduceLong(long aFrom, long aCount, long aGrain, long aIdentity, LongUnaryOperator aMapper, LongBinaryOperator aOperator)
+	{
+		return fold(aFrom, aCount, aGrain, () -> new long[]{aIdentity}, (aAccumulator, aStart, aLength) ->
+		{
+			long value = aAccumulator[0];
+			for (long i = aStart, n = aLength; n != 0; i++, n--)
+			{
+				value = aOperator.applyAsLong(value, aMapper.applyAsLong(i));
+			}
+			aAccumulator[0] = value;
+		}, (aLeft, aRight) ->
+		{
+			aLeft[0] = aOperator.applyAsLong(aLeft[0], aRight[0]);
+			return aLeft;
+		})[0];
+	}
+
+
+	private static double reduceDouble(long aFrom, long aCount, long aGrain, double aIdentity, LongToDoubleFunction aMapper, DoubleBinaryOperator aOperator)
+	{
+		return fold(aFrom, aCount, aGrain, () -> new double[]{aIdentity}, (aAccumulator, aStart, aLength) ->
+		{
+			double value = aAccumulator[0];
+			for (long i = aStart, n = aLength; n != 0; i++, n--)
+			{
+				value = aOperator.applyAsDouble(value, aMapper.applyAsDouble(i));
+			}
+			aAccumulator[0] = value;
+		}, (aLeft, aRight) ->
+		{
+			aLeft[0] = aOperator.applyAsDouble(aLeft[0], aRight[0]);
+			return aLeft;
+		})[0];
+	}
+
+
+	private static OptionalLong extreme(long aFrom, long aCount, long aGrain, long aIdentity, LongUnaryOperator aMapper, LongBinaryOperator aOperator)
+	{
+		return aCount != 0 ? OptionalLong.of(reduceLong(aFrom, aCount, aGrain, aIdentity, aMapper, aOperator)) : OptionalLong.empty();
+	}
+
+
+	@FunctionalInterface
+	private interface Leaf
+	{
+		void run(long aFrom, long aCount);
+	}
+
+
+	private static class RangeTask extends RecursiveAction
+	{
+		private final static long serialVersionUID = 1L;
+
+		private final long mFrom;
+		private final long mCount;
+		private final long mGrain;
+		private final transient Leaf mLeaf;
+
+
+		RangeTask(long aFrom, long aCount, long aGrain, Leaf aLeaf)
+		{
+			mFrom = aFrom;
+			mCount = aCount;
+			mGrain = aGrain;
+			mLeaf = aLeaf;
+		}
+
+
+		@Override
+		protected void compute()
+		{
+			if (Long.compareUnsigned(mCount, mGrain) <= 0)
+			{
+				mLeaf.run(mFrom, mCount);
+			}
+			else
+			{
+				long half = mCount >>> 1;
+
+				invokeAll(new RangeTask(mFrom, half, mGrain, mLeaf), new RangeTask(mFrom + half, mCount - half, mGrain, mLeaf));
+			}
+		}
+	}
+
+
+	@FunctionalInterface
+	private interface Fold<A>
+	{
+		void run(A aAccumulator, long aFrom, long aCount);
+	}
+
+
+	private static class FoldTask<A> extends RecursiveTask<A>
+	{
+		private final static long serialVersionUID = 1L;
+
+		private final long mFrom;
+		private final long mCount;
+		private final long mGrain;
+		private final transient Supplier<A> mSupplier;
+		private final transient Fold<A> mFold;
+		private final transient BinaryOperator<A> mCombiner;
+
+
+		FoldTask(long aFrom, long aCount, long aGrain, Supplier<A> aSupplier, Fold<A> aFold, BinaryOperator<A> aCombiner)
+		{
+			mFrom = aFrom;
+			mCount = aCount;
+			mGrain = aGrain;
+			mSupplier = aSupplier;
+			mFold = aFold;
+			mCombiner = aCombiner;
+		}
+
+
+		@Override
+		protected A compute()
+		{
+			if (Long.compareUnsigned(mCount, mGrain) <= 0)
+			{
+				A accumulator = mSupplier.get();
+				mFold.run(accumulator, mFrom, mCount);
+				return accumulator;
+			}
+
+			long half = mCount >>> 1;
+
+			FoldTask<A> left = new FoldTask<>(mFrom, half, mGrain, mSupplier, mFold, mCombiner);
+			FoldTask<A> right = new FoldTask<>(mFrom + half, mCount - half, mGrain, mSupplier, mFold, mCombiner);
+
+			invokeAll(left, right);
+
+			return mCombiner.apply(left.join(), right.join());
+		}
+	}
+
+
+	/**
+	 * A range mapped to objects, produced by the <code>mapToObj</code> methods.
+	 */
+	public static class Mapped<T>
+	{
+		private final long mFrom;
+		private final long mCount;
+		private final long mGrain;
+		private final LongFunction<? extends T> mMapper;
 
-		ExecutorService executor = new ThreadPoolExecutor(cpu, cpu, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
 
-		for (Runnable r : aRunnables)
+		Mapped(long aFrom, long aCount, long aGrain, LongFunction<? extends T> aMapper)
 		{
-			executor.submit(r);
+			mFrom = aFrom;
+			mCount = aCount;
+			mGrain = aGrain;
+			mMapper = aMapper;
 		}
 
-		try
+
+		/**
+		 * Collect the values in parallel. Partial containers are combined in index order so ordered collectors keep the range order.
+		 */
+		public <A, R> R collect(Collector<? super T, A, R> aCollector)
 		{
-			executor.shutdown();
-			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			BiConsumer<A, ? super T> accumulator = aCollector.accumulator();
+
+			A container = fold(mFrom, mCount, mGrain, aCollector.supplier(), (aContainer, aStart, aLength) ->
+			{
+				for (long i = aStart, n = aLength; n != 0; i++, n--)
+				{
+					accumulator.accept(aContainer, mMapper.apply(i));
+				}
+			}, aCollector.combiner());
+
+			return aCollector.finisher().apply(container);
 		}
-		catch (InterruptedException e)
+
+
+		/**
+		 * Reduce the values in parallel. The operator must be associative and the identity must be an identity for the operator.
+		 */
+		public T reduce(T aIdentity, BinaryOperator<T> aOperator)
 		{
+			return collect(Collectors.reducing(aIdentity, aOperator));
 		}
 	}
 
@@ -105,23 +393,43 @@ public class Parallel
 
 	private static class ParallelImpl
 	{
-		final int mFrom;
-		final int mTo;
+		final long mFrom;
+		final long mTo;
 		final int mStep;
 		final boolean mInclusive;
+		long mGrain;
 
-		ParallelImpl(int aFrom, int aTo, int aStep, boolean aInclusive)
+		ParallelImpl(long aFrom, long aTo, int aStep, boolean aInclusive)
 		{
 			if (aStep <= 0)
 			{
 				throw new IllegalArgumentException("Step must be positive.");
 			}
+			if (aInclusive && aFrom == Long.MIN_VALUE && aTo == Long.MAX_VALUE)
+			{
+				throw new IllegalArgumentException("The range is too large.");
+			}
 
 			mFrom = aFrom;
 			mTo = aTo;
 			mStep = aStep;
 			mInclusive = aInclusive;
 		}
+
+
+		/**
+		 * Return the number of indices in the range. The count is unsigned and computed without overflow, an inclusive range may end at
+		 * Long.MAX_VALUE.
+		 */
+		long count()
+		{
+			if (mInclusive ? mTo < mFrom : mTo <= mFrom)
+			{
+				return 0;
+			}
+
+			return mTo - mFrom + (mInclusive ? 1 : 0);
+		}
 	}
 
 
@@ -133,6 +441,16 @@ public class Parallel
 		}
 
 
+		/**
+		 * Set the maximum number of indices handled by a single task. Zero selects the default.
+		 */
+		public ParallelSingle grain(int aGrainSize)
+		{
+			mGrain = aGrainSize;
+			return this;
+		}
+
+
 		/**
 		 * Calls the Consumer with a value.
 		 * <pre>
@@ -158,27 +476,146 @@ public class Parallel
 		 *   "3"
 		 * </pre>
 		 */
-		public void forEach(Consumer<Integer> aConsumer)
+		public void forEach(IntConsumer aConsumer)
 		{
-			int cpu = ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
+			invoke(mFrom, count(), mGrain, (aFrom, aCount) ->
+			{
+				for (int i = (int)aFrom, to = (int)aCount + i; i != to; i++)
+				{
+					aConsumer.accept(i);
+				}
+			});
+		}
 
-			ExecutorService executor = new ThreadPoolExecutor(cpu, cpu, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
 
-			int to = mInclusive ? mTo + 1 : mTo;
-			for (int i = mFrom; i < to; i += mStep)
+		/**
+		 * Fold the values into accumulators created by the supplier, one for each part of the range, and combine them.
+		 * <pre>
+		 * int[] histogram = Parallel.range(0, pixels.length).reduce(() -&gt; new int[256], (h, i) -&gt; h[pixels[i] &amp; 0xff]++, (a, b) -&gt;
+		 * {
+		 *     for (int i = 0; i &lt; 256; i++) a[i] += b[i];
+		 *     return a;
+		 * });
+		 * </pre>
+		 */
+		public <A> A reduce(Supplier<A> aSupplier, ObjIntConsumer<A> aAccumulator, BinaryOperator<A> aCombiner)
+		{
+			return fold(mFrom, count(), mGrain, aSupplier, (aContainer, aFrom, aCount) ->
 			{
-				int _i = Math.min(i, to);
-				executor.submit(() -> aConsumer.accept(_i));
-			}
+				for (int i = (int)aFrom, to = (int)aCount + i; i != to; i++)
+				{
+					aAccumulator.accept(aContainer, i);
+				}
+			}, aCombiner);
+		}
 
-			try
+
+		public <T> Mapped<T> mapToObj(IntFunction<? extends T> aMapper)
+		{
+			return new Mapped<>(mFrom, count(), mGrain, i -> aMapper.apply((int)i));
+		}
+
+
+		public long sum(IntToLongFunction aMapper)
+		{
+			return reduceLong(mFrom, count(), mGrain, 0, i -> aMapper.applyAsLong((int)i), Long::sum);
+		}
+
+
+		public double sumDouble(IntToDoubleFunction aMapper)
+		{
+			return reduceDouble(mFrom, count(), mGrain, 0, i -> aMapper.applyAsDouble((int)i), Double::sum);
+		}
+
+
+		public OptionalLong min(IntToLongFunction aMapper)
+		{
+			return extreme(mFrom, count(), mGrain, Long.MAX_VALUE, i -> aMapper.applyAsLong((int)i), Math::min);
+		}
+
+
+		public OptionalLong max(IntToLongFunction aMapper)
+		{
+			return extreme(mFrom, count(), mGrain, Long.MIN_VALUE, i -> aMapper.applyAsLong((int)i), Math::max);
+		}
+	}
+
+
+	public static class ParallelLong extends ParallelImpl
+	{
+		ParallelLong(long aFrom, long aTo, boolean aInclusive)
+		{
+			super(aFrom, aTo, 1, aInclusive);
+		}
+
+
+		/**
+		 * Set the maximum number of indices handled by a single task. Zero selects the default.
+		 */
+		public ParallelLong grain(long aGrainSize)
+		{
+			mGrain = aGrainSize;
+			return this;
+		}
+
+
+		/**
+		 * Calls the Consumer with each value in the range.
+		 */
+		public void forEach(LongConsumer aConsumer)
+		{
+			invoke(mFrom, count(), mGrain, (aFrom, aCount) ->
 			{
-				executor.shutdown();
-				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-			}
-			catch (InterruptedException e)
+				for (long i = aFrom, n = aCount; n != 0; i++, n--)
+				{
+					aConsumer.accept(i);
+				}
+			});
+		}
+
+
+		/**
+		 * Fold the values into accumulators created by the supplier, one for each part of the range, and combine them.
+		 */
+		public <A> A reduce(Supplier<A> aSupplier, ObjLongConsumer<A> aAccumulator, BinaryOperator<A> aCombiner)
+		{
+			return fold(mFrom, count(), mGrain, aSupplier, (aContainer, aFrom, aCount) ->
 			{
-			}
+				for (long i = aFrom, n = aCount; n != 0; i++, n--)
+				{
+					aAccumulator.accept(aContainer, i);
+				}
+			}, aCombiner);
+		}
+
+
+		public <T> Mapped<T> mapToObj(LongFunction<? extends T> aMapper)
+		{
+			return new Mapped<>(mFrom, count(), mGrain, aMapper);
+		}
+
+
+		public long sum(LongUnaryOperator aMapper)
+		{
+			return reduceLong(mFrom, count(), mGrain, 0, aMapper, Long::sum);
+		}
+
+
+		public double sumDouble(LongToDoubleFunction aMapper)
+		{
+			return reduceDouble(mFrom, count(), mGrain, 0, aMapper, Double::sum);
+		}
+
+
+		public OptionalLong min(LongUnaryOperator aMapper)
+		{
+			return extreme(mFrom, count(), mGrain, Long.MAX_VALUE, aMapper, Math::min);
+		}
+
+
+		public OptionalLong max(LongUnaryOperator aMapper)
+		{
+			return extreme(mFrom, count(), mGrain, Long.MIN_VALUE, aMapper, Math::max);
 		}
 	}
 
@@ -191,6 +628,16 @@ public class Parallel
 		}
 
 
+		/**
+		 * Set the maximum number of steps handled by a single task. Zero selects the default.
+		 */
+		public ParallelStep grain(int aGrainSize)
+		{
+			mGrain = aGrainSize;
+			return this;
+		}
+
+
 		/**
 		 * Calls the BiConsumer with a starting value and ending value equal to starting value plus step size.
 		 * <pre>
@@ -207,25 +654,43 @@ public class Parallel
 		 */
 		public void forEach(BiConsumer<Integer, Integer> aConsumer)
 		{
-			int cpu = ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
+			invoke(0, steps(), mGrain, (aFrom, aCount) ->
+			{
+				for (long k = aFrom, to = aFrom + aCount; k < to; k++)
+				{
+					aConsumer.accept(start(k), end(k));
+				}
+			});
+		}
 
-			ExecutorService executor = new ThreadPoolExecutor(cpu, cpu, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
 
-			for (int i = mFrom; i < mTo; i += mStep)
-			{
-				int _i = i;
-				int _j = Math.min(i + mStep, mTo) - (mInclusive ? 0 : 1);
-				executor.submit(() -> aConsumer.accept(_i, _j));
-			}
+		/**
+		 * Map each step to an object, the mapper is called with the same values as <code>forEach</code>.
+		 * <pre>
+		 * List&lt;Long&gt; sums = Parallel.range(0, data.length, 4096).mapToObj((i,j) -&gt; sum(data, i, j)).collect(Collectors.toList());
+		 * </pre>
+		 */
+		public <T> Mapped<T> mapToObj(BiFunction<Integer, Integer, ? extends T> aMapper)
+		{
+			return new Mapped<>(0, steps(), mGrain, k -> aMapper.apply(start(k), end(k)));
+		}
 
-			try
-			{
-				executor.shutdown();
-				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-			}
-			catch (InterruptedException e)
-			{
-			}
+
+		private long steps()
+		{
+			return (mTo - mFrom + mStep - 1) / mStep;
+		}
+
+
+		private int start(long aStep)
+		{
+			return (int)(mFrom + aStep * mStep);
+		}
+
+
+		private int end(long aStep)
+		{
+			return (int)(Math.min(mFrom + aStep * mStep + mStep, mTo) - (mInclusive ? 0 : 1));
 		}
 	}
 }
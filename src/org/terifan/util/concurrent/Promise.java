@@ -1,118 +1,568 @@
 package org.terifan.util.concurrent;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import org.terifan.util.executors.TimerWheel;
 
 
+/**
+ * A Promise is the result of a task running asynchronously on an executor. Listeners and chained stages are registered without blocking
+ * and are invoked once the promise is completed or rejected.
+ *
+ * <pre>
+ * Promise&lt;User&gt; user = new Promise&lt;&gt;(() -&gt; service.findUser(id)).timeout(5000);
+ * Promise&lt;List&lt;Order&gt;&gt; orders = user.flatMap(u -&gt; new Promise&lt;&gt;(() -&gt; service.findOrders(u)));
+ * Promise.all(user, orders).then(list -&gt; render(list)).onError(e -&gt; log(e));
+ * </pre>
+ * <p>
+ * Tasks run on the default executor unless one is provided, by default a virtual thread per task. Listeners and the functions of
+ * <code>map</code> and <code>flatMap</code> run on the thread completing the promise, or on the calling thread if the promise is already
+ * completed, and should be short. The state is a single atomic reference holding either the pending listeners or the result, completion
+ * and registration are lock-free.
+ * </p>
+ */
 public class Promise<T>
 {
-	private Throwable mThrowable;
-	private boolean mFinished;
-	private T mOutput;
-	private Consumer<T> mHandler;
+	private static volatile Executor mDefaultExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
+	private final AtomicReference<Object> mState;
+	private volatile CountDownLatch mWaiter;
 
-	public Promise(Task<T> aFunction)
+
+	/**
+	 * Create a pending promise completed by calling <code>complete</code> or <code>reject</code>.
+	 */
+	public Promise()
 	{
+		mState = new AtomicReference<>();
+	}
+
+
+	/**
+	 * Run the task on the default executor.
+	 */
+	public Promise(Task<T> aTask)
+	{
+		this(mDefaultExecutor, aTask);
+	}
+
+
+	/**
+	 * Run the task on the executor.
+	 */
+	public Promise(Executor aExecutor, Task<T> aTask)
+	{
+		this();
+
 		try
 		{
-			// thread
-			complete(aFunction.run());
+			aExecutor.execute(() ->
+			{
+				try
+				{
+					complete(aTask.run());
+				}
+				catch (Throwable e)
+				{
+					reject(e);
+				}
+			});
 		}
-		catch (Throwable e)
+		catch (RejectedExecutionException e)
 		{
-			mThrowable = e;
+			reject(e);
 		}
 	}
 
 
-	public Promise<T> complete(T aValue)
+	/**
+	 * Set the executor used by promises created without one.
+	 */
+	public static void setDefaultExecutor(Executor aExecutor)
 	{
-		if (!mFinished)
+		if (aExecutor == null)
 		{
-			mFinished = true;
-			mOutput = aValue;
+			throw new IllegalArgumentException();
+		}
+
+		mDefaultExecutor = aExecutor;
+	}
+
+
+	/**
+	 * Return a promise already completed with the value.
+	 */
+	public static <T> Promise<T> completed(T aValue)
+	{
+		return new Promise<T>().complete(aValue);
+	}
+
+
+	/**
+	 * Return a promise completed with the values of all promises in the same order, or rejected as soon as any of them is rejected.
+	 */
+	@SafeVarargs
+	@SuppressWarnings("varargs")
+	public static <T> Promise<List<T>> all(Promise<? extends T>... aPromises)
+	{
+		return all(Arrays.asList(aPromises));
+	}
+
+
+	/**
+	 * Return a promise completed with the values of all promises in the same order, or rejected as soon as any of them is rejected.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Promise<List<T>> all(Collection<? extends Promise<? extends T>> aPromises)
+	{
+		Promise<List<T>> result = new Promise<>();
+		Object[] values = new Object[aPromises.size()];
+		AtomicInteger remaining = new AtomicInteger(values.length);
 
-			if (mHandler != null)
+		if (values.length == 0)
+		{
+			return result.complete(new ArrayList<>());
+		}
+
+		int index = 0;
+		for (Promise<? extends T> promise : aPromises)
+		{
+			int i = index++;
+
+			promise.listen(aResult ->
 			{
-				mHandler.accept(mOutput);
-			}
+				if (aResult.mError != null)
+				{
+					result.reject(aResult.mError);
+				}
+				else
+				{
+					values[i] = aResult.mValue;
+
+					if (remaining.decrementAndGet() == 0)
+					{
+						result.complete((List<T>)(List)new ArrayList<>(Arrays.asList(values)));
+					}
+				}
+			});
 		}
+
+		return result;
+	}
+
+
+	/**
+	 * Return a promise completed with the value of the first promise to complete, or rejected with the error of the last promise if all
+	 * of them are rejected.
+	 */
+	@SafeVarargs
+	@SuppressWarnings("varargs")
+	public static <T> Promise<T> any(Promise<? extends T>... aPromises)
+	{
+		return any(Arrays.asList(aPromises));
+	}
+
+
+	/**
+	 * Return a promise completed with the value of the first promise to complete, or rejected with the error of the last promise if all
+	 * of them are rejected.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Promise<T> any(Collection<? extends Promise<? extends T>> aPromises)
+	{
+		Promise<T> result = new Promise<>();
+		AtomicInteger remaining = new AtomicInteger(aPromises.size());
+
+		if (aPromises.isEmpty())
+		{
+			return result.reject(new IllegalArgumentException("No promises"));
+		}
+
+		for (Promise<? extends T> promise : aPromises)
+		{
+			promise.listen(aResult ->
+			{
+				if (aResult.mError == null)
+				{
+					result.complete((T)aResult.mValue);
+				}
+				else if (remaining.decrementAndGet() == 0)
+				{
+					result.reject(aResult.mError);
+				}
+			});
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Complete the promise with the value. Has no effect if the promise is already completed or rejected.
+	 */
+	public Promise<T> complete(T aValue)
+	{
+		settle(new Result(aValue, null));
 		return this;
 	}
 
 
+	/**
+	 * Reject the promise with the error. Has no effect if the promise is already completed or rejected.
+	 */
 	public Promise<T> reject(Throwable aThrowable)
 	{
-		mFinished = true;
-		mThrowable = aThrowable;
+		settle(new Result(null, aThrowable == null ? new NullPointerException() : aThrowable));
 		return this;
 	}
 
 
+	/**
+	 * Reject the promise with a TimeoutException unless it completes within the time.
+	 */
+	public Promise<T> timeout(long aTimeoutMillis)
+	{
+		if (!isDone())
+		{
+			TimerWheel.Timeout timeout = TimerWheel.shared().schedule(aTimeoutMillis, () -> reject(new TimeoutException()));
+
+			listen(aResult -> timeout.cancel());
+		}
+		return this;
+	}
+
+
+	public boolean isDone()
+	{
+		return mState.get() instanceof Result;
+	}
+
+
+	public boolean isRejected()
+	{
+		return mState.get() instanceof Result v && v.mError != null;
+	}
+
+
+	/**
+	 * Blocks until the promise is completed and return its value.
+	 *
+	 * @throws CompletionException
+	 *   if the promise was rejected
+	 */
 	public T get()
 	{
-		// block
-		return mOutput;
+		return await(-1);
+	}
+
+
+	/**
+	 * Blocks until the promise is completed and return its value.
+	 *
+	 * @throws CompletionException
+	 *   if the promise was rejected or, with a TimeoutException as cause, if the time passed
+	 */
+	public T get(long aTimeoutMillis)
+	{
+		return await(Math.max(0, aTimeoutMillis));
 	}
 
 
+	/**
+	 * Return the value if completed, otherwise null.
+	 */
+	@SuppressWarnings("unchecked")
 	public T getNow()
 	{
-		return mOutput;
+		return mState.get() instanceof Result v ? (T)v.mValue : null;
 	}
 
 
-	public Promise then(Consumer<T> aSuccess)
+	public Promise<T> then(Consumer<T> aSuccess)
 	{
 		return then(aSuccess, null);
 	}
 
 
-	public Promise then(Consumer<T> aSuccess, Consumer<Throwable> aFailure)
+	@SuppressWarnings("unchecked")
+	public Promise<T> then(Consumer<T> aSuccess, Consumer<Throwable> aFailure)
+	{
+		listen(aResult ->
+		{
+			if (aResult.mError == null)
+			{
+				aSuccess.accept((T)aResult.mValue);
+			}
+			else if (aFailure != null)
+			{
+				aFailure.accept(aResult.mError);
+			}
+		});
+		return this;
+	}
+
+
+	public Promise<T> onError(Consumer<Throwable> aFailure)
 	{
-		// block
-		if (mThrowable != null)
+		listen(aResult ->
 		{
-			if (aFailure != null)
+			if (aResult.mError != null)
 			{
-				aFailure.accept(mThrowable);
+				aFailure.accept(aResult.mError);
+			}
+		});
+		return this;
+	}
+
+
+	public Promise<T> onFinally(Runnable aRunnable)
+	{
+		listen(aResult -> aRunnable.run());
+		return this;
+	}
+
+
+	public Promise<T> handle(Consumer<T> aHandler)
+	{
+		return then(aHandler);
+	}
+
+
+	/**
+	 * Return a promise completed with the value of this promise transformed by the mapper. Errors are propagated.
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> Promise<R> map(Mapper<? super T, ? extends R> aMapper)
+	{
+		Promise<R> next = new Promise<>();
+
+		listen(aResult ->
+		{
+			if (aResult.mError != null)
+			{
+				next.reject(aResult.mError);
+				return;
+			}
+
+			try
+			{
+				next.complete(aMapper.apply((T)aResult.mValue));
+			}
+			catch (Throwable e)
+			{
+				next.reject(e);
+			}
+		});
+
+		return next;
+	}
+
+
+	/**
+	 * Return a promise completed by the promise the mapper returns for the value of this promise. Errors are propagated.
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> Promise<R> flatMap(Mapper<? super T, ? extends Promise<? extends R>> aMapper)
+	{
+		Promise<R> next = new Promise<>();
+
+		listen(aResult ->
+		{
+			if (aResult.mError != null)
+			{
+				next.reject(aResult.mError);
+				return;
+			}
+
+			try
+			{
+				Promise<? extends R> inner = aMapper.apply((T)aResult.mValue);
+				inner.listen(next::settle);
+			}
+			catch (Throwable e)
+			{
+				next.reject(e);
+			}
+		});
+
+		return next;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private T await(long aTimeoutMillis)
+	{
+		if (!isDone())
+		{
+			CountDownLatch latch = waiter();
+
+			try
+			{
+				if (aTimeoutMillis < 0)
+				{
+					latch.await();
+				}
+				else if (!latch.await(aTimeoutMillis, TimeUnit.MILLISECONDS))
+				{
+					throw new CompletionException(new TimeoutException());
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
 			}
 		}
-		else
+
+		Result result = (Result)mState.get();
+
+		if (result.mError != null)
 		{
-			aSuccess.accept(mOutput);
+			throw new CompletionException(result.mError);
 		}
-		return this;
+
+		return (T)result.mValue;
 	}
 
 
-	public Promise onError(Consumer<Throwable> aFailure)
+	/**
+	 * Return a latch released when the promise is completed. The latch is shared by all blocked threads so timed out calls to get don't
+	 * leave listeners behind.
+	 */
+	private CountDownLatch waiter()
 	{
-		// block
-		if (mThrowable != null)
+		CountDownLatch waiter = mWaiter;
+
+		if (waiter != null)
 		{
-			aFailure.accept(mThrowable);
+			return waiter;
 		}
-		return this;
+
+		return waiterSync();
 	}
 
 
-	public Promise onFinally(Runnable aRunnable)
+	private synchronized CountDownLatch waiterSync()
 	{
-		// block
-		aRunnable.run();
-		return this;
+		if (mWaiter == null)
+		{
+			CountDownLatch latch = new CountDownLatch(1);
+
+			listen(aResult -> latch.countDown());
+
+			mWaiter = latch;
+		}
+
+		return mWaiter;
+	}
+
+
+	/**
+	 * Register a listener invoked once with the result, immediately if the promise is already completed.
+	 */
+	private void listen(Consumer<Result> aListener)
+	{
+		Listener node = new Listener(aListener);
+
+		for (;;)
+		{
+			Object state = mState.get();
+
+			if (state instanceof Result v)
+			{
+				invoke(aListener, v);
+				return;
+			}
+
+			node.mNext = (Listener)state;
+
+			if (mState.compareAndSet(state, node))
+			{
+				return;
+			}
+		}
 	}
 
 
-	public Promise handle(Consumer<T> aHandler)
+	private void settle(Result aResult)
 	{
-		mHandler = aHandler;
-		if (mFinished)
+		Object state;
+
+		do
 		{
-			mHandler.accept(mOutput);
+			state = mState.get();
+
+			if (state instanceof Result)
+			{
+				return;
+			}
+		}
+		while (!mState.compareAndSet(state, aResult));
+
+		Listener reversed = null;
+		for (Listener node = (Listener)state, next; node != null; node = next)
+		{
+			next = node.mNext;
+			node.mNext = reversed;
+			reversed = node;
+		}
+
+		for (Listener node = reversed; node != null; node = node.mNext)
+		{
+			invoke(node.mListener, aResult);
+		}
+	}
+
+
+	private void invoke(Consumer<Result> aListener, Result aResult)
+	{
+		try
+		{
+			aListener.accept(aResult);
+		}
+		catch (Exception | Error e)
+		{
+			e.printStackTrace(System.out);
+		}
+	}
+
+
+	private static final class Result
+	{
+		final Object mValue;
+		final Throwable mError;
+
+
+		Result(Object aValue, Throwable aError)
+		{
+			mValue = aValue;
+			mError = aError;
+		}
+	}
+
+
+	private static final class Listener
+	{
+		final Consumer<Result> mListener;
+		Listener mNext;
+
+
+		Listener(Consumer<Result> aListener)
+		{
+			mListener = aListener;
 		}
-		return this;
 	}
 
 
@@ -121,4 +571,11 @@ public class Promise<T>
 	{
 		T run() throws Exception;
 	}
+
+
+	@FunctionalInterface
+	public interface Mapper<T, R>
+	{
+		R apply(T aValue) throws Exception;
+	}
 }
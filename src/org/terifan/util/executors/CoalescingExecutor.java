@@ -0,0 +1,236 @@
+package org.terifan.util.executors;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+
+/**
+ * CoalescingExecutor invokes a consumer with the most recent value submitted for each key, discarding values submitted while the
+ * consumer of the same key is running. All keys are served by a small shared pool of worker threads and the consumer is never invoked
+ * concurrently for the same key. Submitting a value never blocks, the latest value is swapped into the slot of the key.
+ *
+ * <pre>
+ * CoalescingExecutor&lt;String, Double&gt; executor = new CoalescingExecutor&lt;&gt;(2, (sensor, value) -&gt; updateGauge(sensor, value));
+ * executor.submit("temperature", 21.5);
+ * </pre>
+ * <p>
+ * A slot is kept for every key that has been submitted until it's removed with <code>remove</code>. After a value has been consumed the
+ * slot is handed back to the pool if a newer value is pending, so a busy key cannot starve the other keys.
+ * </p>
+ */
+public class CoalescingExecutor<K, V>
+{
+	private final ConcurrentHashMap<K, Slot<V>> mSlots;
+	private final BiConsumer<K, V> mConsumer;
+	private final int mThreads;
+	private volatile ExecutorService mPool;
+
+
+	/**
+	 * Create a new executor
+	 *
+	 * @param aThreads
+	 *   a positive number equals number of threads to use, a negative number results in total available processors minus aThreads threads.
+	 * @param aConsumer
+	 *   invoked with the key and the most recent value submitted for it
+	 */
+	public CoalescingExecutor(int aThreads, BiConsumer<K, V> aConsumer)
+	{
+		if (aThreads == 0 || aConsumer == null)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		mSlots = new ConcurrentHashMap<>();
+		mConsumer = aConsumer;
+		mThreads = aThreads > 0 ? aThreads : Math.max(1, ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors() + aThreads);
+	}
+
+
+	/**
+	 * Set the value of the key replacing any value not yet consumed. Submitting null discards the pending value.
+	 */
+	public void submit(K aKey, V aValue)
+	{
+		Slot<V> slot = mSlots.get(aKey);
+
+		if (slot == null)
+		{
+			slot = mSlots.computeIfAbsent(aKey, k -> new Slot<>(v -> mConsumer.accept(k, v), this::execute));
+		}
+
+		slot.submit(aValue);
+	}
+
+
+	/**
+	 * Discard the value of the key not yet consumed. Return true if a value was pending.
+	 */
+	public boolean cancel(K aKey)
+	{
+		Slot<V> slot = mSlots.get(aKey);
+
+		return slot != null && slot.mValue.getAndSet(null) != null;
+	}
+
+
+	/**
+	 * Remove the slot of an idle key so keys no longer used do not accumulate. A later submit creates a new slot. Return false if the key
+	 * has no slot or its consumer is scheduled or running, in which case the slot is kept. A value submitted concurrently with remove may
+	 * be discarded.
+	 */
+	public boolean remove(K aKey)
+	{
+		Slot<V> slot = mSlots.get(aKey);
+
+		if (slot == null || !slot.mScheduled.compareAndSet(false, true))
+		{
+			return false;
+		}
+
+		// the removed slot stays scheduled so it's never run again, the consumer is never invoked concurrently for the same key
+		slot.mValue.set(null);
+		mSlots.remove(aKey, slot);
+
+		return true;
+	}
+
+
+	/**
+	 * Release the pooled worker threads. Pending values are still consumed, a later submit will start new workers.
+	 */
+	public synchronized void shutdown()
+	{
+		if (mPool != null)
+		{
+			mPool.shutdown();
+			mPool = null;
+		}
+	}
+
+
+	private void execute(Runnable aSlot)
+	{
+		ExecutorService pool = mPool;
+
+		if (pool == null)
+		{
+			pool = poolSync();
+		}
+
+		try
+		{
+			pool.execute(aSlot);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// the pool was shut down after it was read, a new pool is started
+			poolSync().execute(aSlot);
+		}
+	}
+
+
+	private synchronized ExecutorService poolSync()
+	{
+		if (mPool == null)
+		{
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(mThreads, mThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), aRunnable ->
+			{
+				Thread t = Executors.defaultThreadFactory().newThread(aRunnable);
+				t.setDaemon(true);
+				return t;
+			});
+			pool.allowCoreThreadTimeOut(true);
+
+			mPool = pool;
+		}
+
+		return mPool;
+	}
+
+
+	/**
+	 * A latest-value slot. The slot is scheduled on the executor at most once at any time, guaranteeing a single in-flight consumer.
+	 */
+	static class Slot<V> implements Runnable
+	{
+		private final AtomicReference<V> mValue;
+		private final AtomicBoolean mScheduled;
+		private final Consumer<V> mConsumer;
+		private final Executor mExecutor;
+
+
+		Slot(Consumer<V> aConsumer, Executor aExecutor)
+		{
+			mValue = new AtomicReference<>();
+			mScheduled = new AtomicBoolean();
+			mConsumer = aConsumer;
+			mExecutor = aExecutor;
+		}
+
+
+		void submit(V aValue)
+		{
+			mValue.set(aValue);
+
+			if (aValue != null && mScheduled.compareAndSet(false, true))
+			{
+				schedule();
+			}
+		}
+
+
+		@Override
+		public void run()
+		{
+			V value = mValue.getAndSet(null);
+
+			if (value != null)
+			{
+				try
+				{
+					mConsumer.accept(value);
+				}
+				catch (Error | Exception e)
+				{
+					e.printStackTrace(System.out);
+				}
+			}
+
+			mScheduled.set(false);
+
+			if (mValue.get() != null && mScheduled.compareAndSet(false, true))
+			{
+				schedule();
+			}
+		}
+
+
+		/**
+		 * Hand the slot to the executor. If the executor rejects the slot it's unscheduled so later values are not discarded.
+		 */
+		private void schedule()
+		{
+			try
+			{
+				mExecutor.execute(this);
+			}
+			catch (RuntimeException e)
+			{
+				mScheduled.set(false);
+				throw e;
+			}
+		}
+	}
+}
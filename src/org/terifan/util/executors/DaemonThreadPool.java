@@ -0,0 +1,55 @@
+package org.terifan.util.executors;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A cached pool of daemon threads shared by the executors and utilities that need to run short tasks without owning a pool of their
+ * own. Threads are created on demand and released after a minute idle.
+ *
+ * <pre>
+ * DaemonThreadPool.shared().execute(() -&gt; cleanUp());
+ * </pre>
+ */
+public final class DaemonThreadPool
+{
+	private final static ExecutorService SHARED = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), aRunnable ->
+	{
+		Thread t = Executors.defaultThreadFactory().newThread(aRunnable);
+		t.setDaemon(true);
+		return t;
+	})
+	{
+		@Override
+		public void shutdown()
+		{
+			throw new IllegalStateException("The shared DaemonThreadPool cannot be shut down");
+		}
+
+
+		@Override
+		public List<Runnable> shutdownNow()
+		{
+			throw new IllegalStateException("The shared DaemonThreadPool cannot be shut down");
+		}
+	};
+
+
+	private DaemonThreadPool()
+	{
+	}
+
+
+	/**
+	 * Return the shared pool. The shared pool cannot be shut down.
+	 */
+	public static ExecutorService shared()
+	{
+		return SHARED;
+	}
+}
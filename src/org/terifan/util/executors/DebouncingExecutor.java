@@ -0,0 +1,481 @@
+package org.terifan.util.executors;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * DebouncingExecutor delays, coalesces and rate limits tasks submitted per key. All keys and all instances share a single TimerWheel
+ * thread and tasks are run on a shared pool, never concurrently for the same key.
+ * <ul>
+ * <li><b>debounce</b> - a task is run once no other task has been submitted for the key during the delay, replacing the pending task
+ * (trailing edge). With the leading edge enabled the first task of a burst is run immediately.</li>
+ * <li><b>max wait</b> - a pending task is run at the latest this long after it became pending, even if tasks keep arriving.</li>
+ * <li><b>throttle</b> - at most N tasks are run for the key during any interval, excess tasks are coalesced into one pending task
+ * run as soon as the limit allows.</li>
+ * </ul>
+ *
+ * <pre>
+ * DebouncingExecutor&lt;File&gt; executor = new DebouncingExecutor&lt;File&gt;(500).setMaxWait(5000);
+ * executor.submit(file, () -&gt; reload(file));
+ *
+ * DebouncingExecutor&lt;String&gt; throttle = new DebouncingExecutor&lt;String&gt;(0).setThrottle(10, 1000);
+ * </pre>
+ * <p>
+ * Configure the executor before submitting tasks. Repeated submits during a burst only update the state of the key, the timer is armed
+ * once per burst and re-armed lazily when it fires early. State of idle keys is released.
+ * </p>
+ */
+public class DebouncingExecutor<K>
+{
+	private final ConcurrentHashMap<K, Entry> mEntries;
+	private long mDelay;
+	private long mMaxWait;
+	private boolean mLeading;
+	private boolean mTrailing;
+	private int mPermits;
+	private long mInterval;
+
+
+	/**
+	 * Create a new executor
+	 *
+	 * @param aDelayMillis
+	 *   time without new submits before the pending task is run, zero runs tasks immediately unless throttled.
+	 */
+	public DebouncingExecutor(long aDelayMillis)
+	{
+		if (aDelayMillis < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		mEntries = new ConcurrentHashMap<>();
+		mDelay = TimeUnit.MILLISECONDS.toNanos(aDelayMillis);
+		mTrailing = true;
+	}
+
+
+	/**
+	 * Run the first task of a burst immediately. Default is false.
+	 */
+	public DebouncingExecutor<K> setLeading(boolean aLeading)
+	{
+		mLeading = aLeading;
+		return this;
+	}
+
+
+	/**
+	 * Run the last task of a burst once the delay has passed. Default is true, if false tasks not run immediately are discarded.
+	 */
+	public DebouncingExecutor<K> setTrailing(boolean aTrailing)
+	{
+		mTrailing = aTrailing;
+		return this;
+	}
+
+
+	/**
+	 * Run a pending task at the latest this long after it became pending. Zero disables the limit.
+	 */
+	public DebouncingExecutor<K> setMaxWait(long aMaxWaitMillis)
+	{
+		mMaxWait = TimeUnit.MILLISECONDS.toNanos(aMaxWaitMillis);
+		return this;
+	}
+
+
+	/**
+	 * Run at most the number of tasks for each key during any interval. Zero permits disables throttling.
+	 */
+	public DebouncingExecutor<K> setThrottle(int aPermits, long aIntervalMillis)
+	{
+		if (aPermits < 0 || aIntervalMillis < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		mPermits = aPermits;
+		mInterval = TimeUnit.MILLISECONDS.toNanos(aIntervalMillis);
+		return this;
+	}
+
+
+	/**
+	 * Submit a task using the delay of the executor.
+	 *
+	 * @return
+	 *   true if a pending task was replaced
+	 */
+	public boolean submit(K aKey, Runnable aTask)
+	{
+		return schedule(aKey, mDelay, aTask);
+	}
+
+
+	/**
+	 * Submit a task delayed the specified time.
+	 *
+	 * @return
+	 *   true if a pending task was replaced
+	 */
+	public boolean submit(K aKey, long aDelayMillis, Runnable aTask)
+	{
+		return schedule(aKey, TimeUnit.MILLISECONDS.toNanos(Math.max(0, aDelayMillis)), aTask);
+	}
+
+
+	private boolean schedule(K aKey, long aDelayNanos, Runnable aTask)
+	{
+		if (aTask == null)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		for (;;)
+		{
+			Entry entry = mEntries.get(aKey);
+
+			if (entry == null)
+			{
+				entry = mEntries.computeIfAbsent(aKey, Entry::new);
+			}
+
+			boolean start = false;
+			boolean replaced;
+
+			synchronized (entry)
+			{
+				if (entry.mReleased)
+				{
+					continue;
+				}
+
+				long now = System.nanoTime();
+				boolean first = !entry.mBurst;
+
+				entry.mBurst = true;
+				entry.mLastCall = now;
+				entry.mDelay = aDelayNanos;
+
+				replaced = entry.mTask != null;
+
+				if (!replaced && (first && mLeading || aDelayNanos == 0) && entry.acquire(now))
+				{
+					start = entry.enqueue(aTask);
+				}
+				else if (mTrailing)
+				{
+					if (!replaced)
+					{
+						entry.mPendingSince = now;
+					}
+					entry.mTask = aTask;
+				}
+
+				long due = entry.due();
+
+				if (entry.mTimeout == null || due - entry.mArmedAt < 0)
+				{
+					entry.arm(due, now);
+				}
+			}
+
+			if (start)
+			{
+				DaemonThreadPool.shared().execute(entry::drain);
+			}
+
+			return replaced;
+		}
+	}
+
+
+	/**
+	 * Return true if a task is pending for the key.
+	 */
+	public boolean isPending(K aKey)
+	{
+		Entry entry = mEntries.get(aKey);
+
+		if (entry == null)
+		{
+			return false;
+		}
+
+		synchronized (entry)
+		{
+			return entry.mTask != null;
+		}
+	}
+
+
+	/**
+	 * Discard the pending task of the key.
+	 *
+	 * @return
+	 *   true if a task was pending
+	 */
+	public boolean cancel(K aKey)
+	{
+		Entry entry = mEntries.get(aKey);
+
+		if (entry == null)
+		{
+			return false;
+		}
+
+		synchronized (entry)
+		{
+			boolean pending = entry.mTask != null;
+			entry.mTask = null;
+			return pending;
+		}
+	}
+
+
+	/**
+	 * Run the pending task of the key on the calling thread, ignoring delay and throttling. The task may overlap a task of the same key
+	 * already running on the pool.
+	 *
+	 * @return
+	 *   true if a task was run
+	 */
+	public boolean flush(K aKey)
+	{
+		Entry entry = mEntries.get(aKey);
+
+		if (entry == null)
+		{
+			return false;
+		}
+
+		Runnable task;
+
+		synchronized (entry)
+		{
+			task = entry.mTask;
+
+			if (task == null)
+			{
+				return false;
+			}
+
+			entry.mTask = null;
+			entry.record(System.nanoTime());
+		}
+
+		task.run();
+
+		return true;
+	}
+
+
+	/**
+	 * The state of a key. Guarded by its own monitor, the timer callback runs on the TimerWheel thread.
+	 */
+	private class Entry
+	{
+		final K mKey;
+		final ArrayDeque<Runnable> mQueue;
+		final long[] mHistory;
+		int mHistoryIndex;
+		Runnable mTask;
+		long mDelay;
+		long mLastCall;
+		long mPendingSince;
+		long mArmedAt;
+		int mGeneration;
+		TimerWheel.Timeout mTimeout;
+		boolean mBurst;
+		boolean mRunning;
+		boolean mReleased;
+
+
+		Entry(K aKey)
+		{
+			mKey = aKey;
+			mQueue = new ArrayDeque<>();
+			mHistory = new long[mPermits];
+
+			Arrays.fill(mHistory, System.nanoTime() - mInterval);
+		}
+
+
+		/**
+		 * Timer callback, ignored if the timer has been re-armed since.
+		 */
+		void fire(int aGeneration)
+		{
+			boolean start = false;
+
+			synchronized (this)
+			{
+				if (aGeneration != mGeneration)
+				{
+					return;
+				}
+
+				mTimeout = null;
+
+				long now = System.nanoTime();
+				long due = due();
+
+				if (now - due < 0)
+				{
+					arm(due, now);
+					return;
+				}
+
+				if (mTask != null && acquire(now))
+				{
+					start = enqueue(mTask);
+					mTask = null;
+				}
+
+				if (mTask != null || now - mLastCall < mDelay)
+				{
+					arm(due(), now);
+				}
+				else
+				{
+					mBurst = false;
+
+					release(now);
+				}
+			}
+
+			if (start)
+			{
+				DaemonThreadPool.shared().execute(this::drain);
+			}
+		}
+
+
+		/**
+		 * Queue a task to run, return true if the caller must start draining the queue.
+		 */
+		boolean enqueue(Runnable aTask)
+		{
+			mQueue.add(aTask);
+
+			if (mRunning)
+			{
+				return false;
+			}
+
+			mRunning = true;
+
+			return true;
+		}
+
+
+		/**
+		 * Run queued tasks in order on a pool thread.
+		 */
+		void drain()
+		{
+			for (;;)
+			{
+				Runnable task;
+
+				synchronized (this)
+				{
+					task = mQueue.poll();
+
+					if (task == null)
+					{
+						mRunning = false;
+						release(System.nanoTime());
+						return;
+					}
+				}
+
+				try
+				{
+					task.run();
+				}
+				catch (Error | Exception e)
+				{
+					e.printStackTrace(System.out);
+				}
+			}
+		}
+
+
+		/**
+		 * Remove the entry from the executor when the key is idle and its throttle history has expired.
+		 */
+		void release(long aNow)
+		{
+			if (!mBurst && !mRunning && (mHistory.length == 0 || aNow - mHistory[(mHistoryIndex + mHistory.length - 1) % mHistory.length] >= mInterval))
+			{
+				mReleased = true;
+				mEntries.remove(mKey, this);
+			}
+		}
+
+
+		/**
+		 * Return the time the timer should fire next, i.e. when the burst ends or the pending task may run.
+		 */
+		long due()
+		{
+			long due = mLastCall + mDelay;
+
+			if (mTask != null)
+			{
+				if (mMaxWait > 0 && mPendingSince + mMaxWait - due < 0)
+				{
+					due = mPendingSince + mMaxWait;
+				}
+				if (mHistory.length > 0 && mHistory[mHistoryIndex] + mInterval - due > 0)
+				{
+					due = mHistory[mHistoryIndex] + mInterval;
+				}
+			}
+
+			return due;
+		}
+
+
+		boolean acquire(long aNow)
+		{
+			if (mHistory.length > 0 && aNow - mHistory[mHistoryIndex] < mInterval)
+			{
+				return false;
+			}
+
+			record(aNow);
+
+			return true;
+		}
+
+
+		void record(long aNow)
+		{
+			if (mHistory.length > 0)
+			{
+				mHistory[mHistoryIndex] = aNow;
+				mHistoryIndex = (mHistoryIndex + 1) % mHistory.length;
+			}
+		}
+
+
+		void arm(long aDue, long aNow)
+		{
+			if (mTimeout != null)
+			{
+				mTimeout.cancel();
+			}
+
+			int generation = ++mGeneration;
+
+			mArmedAt = aDue;
+			mTimeout = TimerWheel.shared().schedule((Math.max(0, aDue - aNow) + 999_999) / 1_000_000, () -> fire(generation));
+		}
+	}
+}
@@ -2,14 +2,17 @@ package org.terifan.util.executors;
 
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -17,16 +20,22 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Helper class replacing Executors.newFixedThreadPool()
+ * <p>
+ * When a queue limit is set each queued task holds a permit from a semaphore sized to the limit. The permit is returned when the task is
+ * taken from the queue by a worker. What happens when no permit is available is decided by the OverflowPolicy, the default is to block
+ * the submitting thread.
+ * </p>
  */
 public class FixedThreadExecutor<T> implements AutoCloseable
 {
-	private final Object LOCK = new Object();
-	private final HashMap<CallableTask, AtomicReference> mResultReceivers;
 	private final LinkedBlockingQueue mBlockingQueue;
 	private final int mThreads;
-	private ExecutorService mExecutorService;
+	private volatile ExecutorService mExecutorService;
+	private volatile Semaphore mPermits;
+	private OverflowPolicy mOverflowPolicy;
 	private OnCompletion mOnCompletion;
 	private int mQueueLimit;
+	private int mVirtualConcurrency;
 	private boolean mDaemon;
 
 
@@ -48,7 +57,7 @@ public class FixedThreadExecutor<T> implements AutoCloseable
 		}
 
 		mBlockingQueue = new LinkedBlockingQueue<>();
-		mResultReceivers = new HashMap<>();
+		mOverflowPolicy = OverflowPolicy.BLOCK;
 	}
 
 
@@ -72,9 +81,9 @@ public class FixedThreadExecutor<T> implements AutoCloseable
 
 		int cpu = getAvailableProcessors();
 
-		mThreads = Math.max(1, Math.min(cpu, (int)Math.round(cpu * aThreads)));
+		mThreads = Math.max(1, Math.min(cpu, Math.round(cpu * aThreads)));
 		mBlockingQueue = new LinkedBlockingQueue<>();
-		mResultReceivers = new HashMap<>();
+		mOverflowPolicy = OverflowPolicy.BLOCK;
 	}
 
 
@@ -108,77 +117,165 @@ public class FixedThreadExecutor<T> implements AutoCloseable
 	 * Submit a task, this method may block if the queue size exceeds the limit.
 	 *
 	 * @see java.util.concurrent.ExecutorService#submit
+	 * @throws RejectedExecutionException if the queue is full and the overflow policy is REJECT
 	 */
 	public void submit(RunnableTask aRunnable)
 	{
-		doSubmit(init(), aRunnable);
+		if (aRunnable != null)
+		{
+			doSubmit(init(), task(aRunnable));
+		}
 	}
 
 
-	public void call(AtomicReference aResultReceiver, CallableTask aRunnable)
+	/**
+	 * Submit a collection of tasks. The tasks are queued in iteration order and the overflow policy is applied to each task.
+	 *
+	 * @throws RejectedExecutionException if the queue is full and the overflow policy is REJECT
+	 */
+	public void submitAll(Collection<? extends RunnableTask> aRunnables)
 	{
-		mResultReceivers.put(aRunnable, aResultReceiver);
-		doSubmit(init(), aRunnable);
+		ExecutorService service = init();
+
+		for (RunnableTask runnable : aRunnables)
+		{
+			if (runnable != null)
+			{
+				doSubmit(service, task(runnable));
+			}
+		}
 	}
 
 
-	private void doSubmit(ExecutorService aService, Object aRunnable)
+	/**
+	 * Submit a task producing a value. The value is set in the result receiver when the task has finished. The Future provided to the
+	 * OnCompletion callback returns the value, or the exception thrown by the task.
+	 *
+	 * @throws RejectedExecutionException if the queue is full and the overflow policy is REJECT
+	 */
+	public <U> void call(AtomicReference<? super U> aResultReceiver, CallableTask<U> aRunnable)
 	{
-		if (mQueueLimit > 0)
+		if (aRunnable == null)
+		{
+			return;
+		}
+
+		doSubmit(init(), () ->
 		{
-			synchronized (LOCK)
+			try
 			{
-				while (mBlockingQueue.size() >= mQueueLimit)
+				U value = aRunnable.run();
+				if (aResultReceiver != null)
 				{
-					try
-					{
-						LOCK.wait(1000);
-					}
-					catch (InterruptedException e)
-					{
-						System.out.println("#");
-					}
+					aResultReceiver.set(value);
 				}
+				return value;
+			}
+			catch (Exception e)
+			{
+				e.printStackTrace(System.err);
+				return e;
+			}
+		});
+	}
+
+
+	private static Callable<Object> task(RunnableTask aRunnable)
+	{
+		return () ->
+		{
+			try
+			{
+				aRunnable.run();
+			}
+			catch (Exception e)
+			{
+				e.printStackTrace(System.err);
+			}
+			return null;
+		};
+	}
+
+
+	private void doSubmit(ExecutorService aService, Callable<?> aTask)
+	{
+		Semaphore permits = mPermits;
+
+		if (permits != null && !permits.tryAcquire())
+		{
+			switch (mOverflowPolicy)
+			{
+				case BLOCK:
+					permits.acquireUninterruptibly();
+					break;
+				case CALLER_RUNS:
+					FutureTask<?> future = new FutureTask<>(aTask);
+					future.run();
+					completed(future);
+					return;
+				case DROP_OLDEST:
+					dropOldest(permits);
+					break;
+				case REJECT:
+					throw new RejectedExecutionException("Queue limit reached: " + mQueueLimit);
 			}
 		}
 
-		if (aRunnable instanceof RunnableTask)
+		if (permits == null)
+		{
+			aService.submit(aTask);
+		}
+		else
 		{
 			aService.submit(() ->
 			{
-				try
-				{
-					((RunnableTask)aRunnable).run();
-					synchronized (LOCK)
-					{
-						LOCK.notify();
-					}
-				}
-				catch (Exception e)
-				{
-					e.printStackTrace(System.err);
-				}
+				permits.release();
+				return aTask.call();
 			});
 		}
-		else if (aRunnable != null)
+	}
+
+
+	/**
+	 * Cancel queued tasks, oldest first, until a permit is acquired. When the queue is empty the permits are held by tasks in transit to
+	 * or from the queue and the submitting thread waits for one of them to release its permit.
+	 */
+	private void dropOldest(Semaphore aPermits)
+	{
+		while (!aPermits.tryAcquire())
 		{
-			aService.submit(() ->
+			Future<?> oldest = (Future<?>)mBlockingQueue.poll();
+
+			if (oldest == null)
 			{
 				try
 				{
-					Object r = ((CallableTask)aRunnable).run();
-					synchronized (LOCK)
+					if (aPermits.tryAcquire(1, TimeUnit.MILLISECONDS))
 					{
-						LOCK.notify();
+						return;
 					}
-					return r;
 				}
-				catch (Exception e)
+				catch (InterruptedException e)
 				{
-					e.printStackTrace(System.err);
-					return e;
+					Thread.currentThread().interrupt();
+					aPermits.acquireUninterruptibly();
+					return;
 				}
-			});
+			}
+			else if (oldest.cancel(false))
+			{
+				aPermits.release();
+			}
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private void completed(Future<?> aFuture)
+	{
+		if (mOnCompletion != null)
+		{
+			mOnCompletion.onCompletion(aFuture);
 		}
 	}
 
@@ -216,12 +313,32 @@ public class FixedThreadExecutor<T> implements AutoCloseable
 	}
 
 
-	private synchronized ExecutorService init()
+	private ExecutorService init()
+	{
+		ExecutorService service = mExecutorService;
+
+		if (service != null)
+		{
+			return service;
+		}
+
+		return initSync();
+	}
+
+
+	private synchronized ExecutorService initSync()
 	{
 		if (mExecutorService == null)
 		{
-			mExecutorService = new ThreadPoolExecutor(mThreads, mThreads, 0L, TimeUnit.MILLISECONDS, (BlockingQueue<Runnable>)mBlockingQueue, aRunnable ->
+			boolean virtual = mVirtualConcurrency > 0;
+			int threads = virtual ? mVirtualConcurrency : mThreads;
+
+			mExecutorService = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, (BlockingQueue<Runnable>)mBlockingQueue, aRunnable ->
 			{
+				if (virtual)
+				{
+					return Thread.ofVirtual().unstarted(aRunnable);
+				}
 				Thread t = Executors.defaultThreadFactory().newThread(aRunnable);
 				t.setDaemon(mDaemon);
 				return t;
@@ -232,15 +349,7 @@ public class FixedThreadExecutor<T> implements AutoCloseable
 				{
 					super.afterExecute(aRunnable, aThrowable);
 
-					synchronized (this)
-					{
-						notify();
-					}
-
-					if (mOnCompletion != null)
-					{
-						mOnCompletion.onCompletion((Future)aRunnable);
-					}
+					completed((Future<?>)aRunnable);
 
 					if (aThrowable != null)
 					{
@@ -267,11 +376,33 @@ public class FixedThreadExecutor<T> implements AutoCloseable
 
 
 	/**
-	 * Sets how many items the blocking queue will contain before the submit methods start blocking.
+	 * Sets how many items the blocking queue will contain before the overflow policy is applied. Zero or a negative value means no limit.
 	 */
 	public FixedThreadExecutor<T> setQueueLimit(int aQueueSizeLimit)
 	{
 		mQueueLimit = aQueueSizeLimit;
+		mPermits = aQueueSizeLimit > 0 ? new Semaphore(aQueueSizeLimit) : null;
+		return this;
+	}
+
+
+	public OverflowPolicy getOverflowPolicy()
+	{
+		return mOverflowPolicy;
+	}
+
+
+	/**
+	 * Sets what happens when a task is submitted and the queue limit has been reached. Default is BLOCK.
+	 */
+	public FixedThreadExecutor<T> setOverflowPolicy(OverflowPolicy aOverflowPolicy)
+	{
+		if (aOverflowPolicy == null)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		mOverflowPolicy = aOverflowPolicy;
 		return this;
 	}
 
@@ -289,13 +420,53 @@ public class FixedThreadExecutor<T> implements AutoCloseable
 	}
 
 
-	public FixedThreadExecutor setDeamon(boolean aState)
+	public FixedThreadExecutor<T> setDeamon(boolean aState)
 	{
 		mDaemon = aState;
 		return this;
 	}
 
 
+	public boolean isVirtualThreads()
+	{
+		return mVirtualConcurrency > 0;
+	}
+
+
+	/**
+	 * Execute tasks on virtual threads instead of the platform threads provided in the constructor. Suitable for tasks spending most of
+	 * their time blocked on I/O. Virtual threads are always daemon threads.
+	 *
+	 * @param aConcurrencyLimit
+	 *   maximum number of tasks executing concurrently, zero or a negative number disables virtual threads.
+	 * @throws IllegalStateException
+	 *   if tasks have already been submitted to this executor.
+	 */
+	public synchronized FixedThreadExecutor<T> setVirtualThreads(int aConcurrencyLimit)
+	{
+		if (mExecutorService != null)
+		{
+			throw new IllegalStateException("Executor is already running");
+		}
+
+		mVirtualConcurrency = aConcurrencyLimit;
+		return this;
+	}
+
+
+	public enum OverflowPolicy
+	{
+		/** the submitting thread blocks until the queue has space */
+		BLOCK,
+		/** the task is executed by the submitting thread */
+		CALLER_RUNS,
+		/** the oldest queued task is discarded */
+		DROP_OLDEST,
+		/** a RejectedExecutionException is thrown */
+		REJECT
+	}
+
+
 	@FunctionalInterface
 	public interface RunnableTask
 	{
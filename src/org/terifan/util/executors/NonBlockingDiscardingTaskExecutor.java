@@ -5,7 +5,8 @@ import java.util.function.Consumer;
 
 /**
  * This class will invoke the Consumer, provided in the constructor, with the values submitted, discarding values while the Consumer is
- * running. The Consumer is re-invoked with the most recent value submitted.
+ * running. The Consumer is re-invoked with the most recent value submitted. Submitting never blocks and the Consumer runs on a thread
+ * from a shared pool, idle threads are kept for a minute. Use a CoalescingExecutor to coalesce values of multiple keys.
  * <p>
  * E.g. perform costly screen update with the most recent pointer position:
  * <pre>
@@ -19,65 +20,18 @@ import java.util.function.Consumer;
  */
 public class NonBlockingDiscardingTaskExecutor<T>
 {
-	private final Consumer<T> mConsumer;
-	private Thread mWorker;
-	private T mNextValue;
+	private final CoalescingExecutor.Slot<T> mSlot;
 
 
 	public NonBlockingDiscardingTaskExecutor(Consumer<T> aConsumer)
 	{
-		mConsumer = aConsumer;
+		mSlot = new CoalescingExecutor.Slot<>(aConsumer, DaemonThreadPool.shared());
 	}
 
 
 	public void submit(T aNextValue)
 	{
-		synchronized (this)
-		{
-			mNextValue = aNextValue;
-
-			if (mNextValue != null && mWorker == null)
-			{
-				mWorker = new Thread()
-				{
-					{
-						setDaemon(true);
-					}
-
-					@Override
-					public void run()
-					{
-						for (;;)
-						{
-							T nextValue;
-
-							synchronized (NonBlockingDiscardingTaskExecutor.this)
-							{
-								nextValue = mNextValue;
-								mNextValue = null;
-							}
-
-							if (nextValue == null)
-							{
-								mWorker = null;
-								return;
-							}
-
-							try
-							{
-								mConsumer.accept(nextValue);
-							}
-							catch (Error | Exception e)
-							{
-								e.printStackTrace(System.out);
-							}
-						}
-					}
-				};
-
-				mWorker.start();
-			}
-		}
+		mSlot.submit(aNextValue);
 	}
 
 //	public static void main(String ... args)
@@ -1,8 +1,20 @@
 package org.terifan.util.executors;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Supplier;
 
 
@@ -15,15 +27,24 @@ import java.util.function.Supplier;
  * Handler&lt;Integer&gt; handler = i -&gt; System.out.println(i);
  * new PollingExecutor(2).execute(supplier.iterator(), handler);
  * </pre>
+ * <p>
+ * The worker threads are pooled and reused by subsequent calls, idle workers are released after a minute. The execute methods may be
+ * invoked concurrently from multiple threads and the calling thread takes part in executing its own call.
+ * </p>
  */
 public class PollingExecutor
 {
-	private final Object mIteratorLock = new Object();
-	private final Worker[] mWorkers;
-	private boolean mCancelled;
-	private int mShutdownCount;
-	private Handler mHandler;
-	private Supplier mSupplier;
+	private final static long TARGET_CHUNK_NANOS = 100_000;
+	private final static int MAX_CHUNK_SIZE = 4096;
+	private final static int RANGE_BATCHES_PER_BLOCK = 64;
+	private final static int MAX_RANGE_BATCH = 1 << 16;
+	private final static int CURSOR_STRIDE = 16;
+
+	private final Set<Execution> mExecutions;
+	private volatile ExecutorService mPool;
+	private final int mPlatformThreads;
+	private int mThreads;
+	private boolean mVirtualThreads;
 
 
 	/**
@@ -34,21 +55,22 @@ public class PollingExecutor
 	 */
 	public PollingExecutor(int aThreads)
 	{
-		int count;
+		mExecutions = ConcurrentHashMap.newKeySet();
+
 		if (aThreads > 0)
 		{
-			count = aThreads;
+			mPlatformThreads = aThreads;
 		}
 		else if (aThreads < 0)
 		{
-			count = Math.max(1, ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors() + aThreads);
+			mPlatformThreads = Math.max(1, ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors() + aThreads);
 		}
 		else
 		{
 			throw new IllegalArgumentException();
 		}
 
-		mWorkers = new Worker[count];
+		mThreads = mPlatformThreads;
 	}
 
 
@@ -67,8 +89,33 @@ public class PollingExecutor
 
 		int cpu = ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
 
-		int count = Math.max(1, Math.min(cpu, (int)Math.round(cpu * aThreads)));
-		mWorkers = new Worker[count];
+		mExecutions = ConcurrentHashMap.newKeySet();
+		mPlatformThreads = Math.max(1, Math.min(cpu, Math.round(cpu * aThreads)));
+		mThreads = mPlatformThreads;
+	}
+
+
+	/**
+	 * Run workers on virtual threads instead of platform threads. Suitable for handlers spending most of their time blocked on I/O.
+	 *
+	 * @param aConcurrencyLimit
+	 *   number of virtual worker threads, i.e. the maximum number of elements handled concurrently. Zero or a negative number disables
+	 *   virtual threads and restores the number of platform threads provided in the constructor.
+	 */
+	public synchronized PollingExecutor setVirtualThreads(int aConcurrencyLimit)
+	{
+		mVirtualThreads = aConcurrencyLimit > 0;
+		mThreads = mVirtualThreads ? aConcurrencyLimit : mPlatformThreads;
+
+		shutdown();
+
+		return this;
+	}
+
+
+	public boolean isVirtualThreads()
+	{
+		return mVirtualThreads;
 	}
 
 
@@ -77,38 +124,241 @@ public class PollingExecutor
 	 */
 	public void cancel()
 	{
-		mCancelled = true;
+		for (Execution execution : mExecutions)
+		{
+			execution.mCancelled = true;
+		}
 	}
 
 
 	/**
-	 * Calls the Handler run method for each element provided by the Iterator in parallel. This method blocks until all elements have been
-	 * handled. Acquiring a value from the Iterator is synchronized.
+	 * Release the pooled worker threads. Executions in progress will finish, a later call to any execute method will start new workers.
+	 */
+	public synchronized void shutdown()
+	{
+		if (mPool != null)
+		{
+			mPool.shutdown();
+			mPool = null;
+		}
+	}
+
+
+	/**
+	 * Calls the Handler run method for each index in the range in parallel. This method blocks until all indices have been handled.
+	 *
+	 * @see #executeIntRange
 	 */
 	public void executeRange(int aStartInclusive, int aEndExclusive, Handler<Integer> aHandler)
 	{
-		AtomicInteger counter = new AtomicInteger(aStartInclusive);
-		execute(() -> {int index = counter.getAndIncrement(); return index >= aEndExclusive ? null : index;}, aHandler);
+		executeIntRange(aStartInclusive, aEndExclusive, aHandler::run);
+	}
+
+
+	/**
+	 * Calls the IntHandler run method for each index in the range in parallel. This method blocks until all indices have been handled.
+	 *
+	 * @see #executeLongRange
+	 */
+	public void executeIntRange(int aStartInclusive, int aEndExclusive, IntHandler aHandler)
+	{
+		executeLongRange(aStartInclusive, aEndExclusive, aIndex -> aHandler.run((int)aIndex));
+	}
+
+
+	/**
+	 * Calls the LongHandler run method for each index in the range in parallel. This method blocks until all indices have been handled.
+	 * <p>
+	 * The range is split into one block per worker. Each worker claims batches of indices from its own block and when the block is exhausted
+	 * it steals batches from the blocks of other workers. No objects are allocated per index.
+	 * </p>
+	 * <p>
+	 * The range may span the entire long range, block bounds and cursors never advance past the end of the range.
+	 * </p>
+	 */
+	public void executeLongRange(long aStartInclusive, long aEndExclusive, LongHandler aHandler)
+	{
+		if (aEndExclusive <= aStartInclusive)
+		{
+			return;
+		}
+
+		// a range wider than Long.MAX_VALUE overflows, the clamped length is only used to size the blocks
+		long length = aEndExclusive - aStartInclusive;
+		if (length < 0)
+		{
+			length = Long.MAX_VALUE;
+		}
+
+		int blocks = (int)Math.min(mThreads, length);
+		long blockLength = length / blocks + (length % blocks == 0 ? 0 : 1);
+		long batch = Math.max(1, Math.min(MAX_RANGE_BATCH, blockLength / RANGE_BATCHES_PER_BLOCK));
+
+		// cursors are padded to avoid false sharing between workers
+		AtomicLongArray cursors = new AtomicLongArray(blocks * CURSOR_STRIDE);
+		long[] ends = new long[blocks];
+
+		for (int i = 0; i < blocks; i++)
+		{
+			cursors.set(i * CURSOR_STRIDE, aStartInclusive + Math.min(length, i * blockLength));
+			ends[i] = i == blocks - 1 ? aEndExclusive : aStartInclusive + Math.min(length, (i + 1) * blockLength);
+		}
+
+		run((aExecution, aWorkerIndex) ->
+		{
+			for (int j = 0; j < blocks && !aExecution.mCancelled; j++)
+			{
+				int block = (aWorkerIndex + j) % blocks;
+				long end = ends[block];
+
+				for (long start; !aExecution.mCancelled && (start = claim(cursors, block * CURSOR_STRIDE, batch, end)) < end;)
+				{
+					for (long i = start, last = Long.compareUnsigned(end - start, batch) <= 0 ? end : start + batch; i < last; i++)
+					{
+						try
+						{
+							aHandler.run(i);
+						}
+						catch (Exception | Error e)
+						{
+							e.printStackTrace(System.out);
+						}
+					}
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Advance the cursor by one batch without moving it past the end and return its previous position, or the end when the block is
+	 * exhausted. The remaining length is compared unsigned since the last block of a range wider than Long.MAX_VALUE overflows.
+	 */
+	private static long claim(AtomicLongArray aCursors, int aIndex, long aBatch, long aEnd)
+	{
+		for (;;)
+		{
+			long start = aCursors.get(aIndex);
+
+			if (start >= aEnd)
+			{
+				return aEnd;
+			}
+
+			if (aCursors.compareAndSet(aIndex, start, Long.compareUnsigned(aEnd - start, aBatch) <= 0 ? aEnd : start + aBatch))
+			{
+				return start;
+			}
+		}
 	}
 
 
 	/**
 	 * Calls the Handler run method for each element provided by the Iterator in parallel. This method blocks until all elements have been
-	 * handled. Acquiring a value from the Iterator is synchronized.
+	 * handled. Acquiring values from the Iterator is synchronized.
+	 * <p>
+	 * Workers claim elements from the Iterator in chunks. The chunk size of each worker adapts to the measured handler time, cheap handlers
+	 * claim large chunks while expensive handlers claim a single element at a time.
+	 * </p>
 	 */
 	public <T> void execute(Iterator<T> aIterator, Handler<T> aHandler)
 	{
-		execute(() ->
+		execute(aIterator, 0, aHandler);
+	}
+
+
+	/**
+	 * Calls the Handler run method for each element provided by the Iterator in parallel. This method blocks until all elements have been
+	 * handled. Acquiring values from the Iterator is synchronized.
+	 *
+	 * @param aChunkSize
+	 *   number of elements each worker claims from the Iterator at a time. Zero or a negative number adapts the chunk size to the measured
+	 *   handler time.
+	 */
+	public <T> void execute(Iterator<T> aIterator, int aChunkSize, Handler<T> aHandler)
+	{
+		Object lock = new Object();
+
+		run((aExecution, aWorkerIndex) ->
+		{
+			ArrayList<T> chunk = new ArrayList<>();
+			int chunkSize = aChunkSize > 0 ? aChunkSize : 1;
+
+			for (;;)
+			{
+				synchronized (lock)
+				{
+					while (!aExecution.mCancelled && chunk.size() < chunkSize && aIterator.hasNext())
+					{
+						chunk.add(aIterator.next());
+					}
+				}
+
+				if (chunk.isEmpty())
+				{
+					break;
+				}
+
+				long time = System.nanoTime();
+
+				for (int i = 0; i < chunk.size() && !aExecution.mCancelled; i++)
+				{
+					handle(aHandler, chunk.get(i));
+				}
+
+				if (aChunkSize <= 0)
+				{
+					long perElement = Math.max(1, (System.nanoTime() - time) / chunk.size());
+					chunkSize = (int)Math.max(1, Math.min(MAX_CHUNK_SIZE, TARGET_CHUNK_NANOS / perElement));
+				}
+
+				chunk.clear();
+			}
+		});
+	}
+
+
+	/**
+	 * Calls the Handler run method for each element provided by the Spliterator in parallel. This method blocks until all elements have been
+	 * handled.
+	 * <p>
+	 * The Spliterator is split into a number of parts before execution starts and each worker traverses one part at a time. Unlike the
+	 * Iterator and Supplier versions no lock is shared between the workers.
+	 * </p>
+	 */
+	public <T> void execute(Spliterator<T> aSpliterator, Handler<T> aHandler)
+	{
+		ConcurrentLinkedQueue<Spliterator<T>> parts = new ConcurrentLinkedQueue<>();
+		split(aSpliterator, parts, 4 * mThreads);
+
+		run((aExecution, aWorkerIndex) ->
 		{
-			synchronized (mIteratorLock)
+			for (Spliterator<T> part; !aExecution.mCancelled && (part = parts.poll()) != null;)
 			{
-				if (!mCancelled && aIterator.hasNext())
+				Spliterator<T> _part = part;
+				while (!aExecution.mCancelled && _part.tryAdvance(e -> handle(aHandler, e)))
 				{
-					return aIterator.next();
 				}
 			}
-			return null;
-		}, aHandler);
+		});
+	}
+
+
+	private static <T> void split(Spliterator<T> aSpliterator, ConcurrentLinkedQueue<Spliterator<T>> aParts, int aCount)
+	{
+		if (aCount > 1)
+		{
+			Spliterator<T> prefix = aSpliterator.trySplit();
+
+			if (prefix != null)
+			{
+				split(prefix, aParts, aCount / 2);
+				split(aSpliterator, aParts, aCount - aCount / 2);
+				return;
+			}
+		}
+
+		aParts.add(aSpliterator);
 	}
 
 
@@ -116,102 +366,173 @@ public class PollingExecutor
 	 * Calls the Handler run method for each element provided by the Supplier in parallel. This method blocks until all elements have been
 	 * handled. A null value returned by the Supplier will stop the processing.
 	 */
-	public synchronized <T> void execute(Supplier<T> aSupplier, Handler<T> aHandler)
+	public <T> void execute(Supplier<T> aSupplier, Handler<T> aHandler)
 	{
-		mSupplier = aSupplier;
-		mHandler = aHandler;
-		mShutdownCount = 0;
-		mCancelled = false;
-
-		for (int i = 0; i < mWorkers.length; i++)
+		run((aExecution, aWorkerIndex) ->
 		{
-			mWorkers[i] = new Worker(i);
-			mWorkers[i].start();
-		}
+			for (T parameter; !aExecution.mCancelled && (parameter = aSupplier.get()) != null;)
+			{
+				handle(aHandler, parameter);
+			}
+		});
+	}
+
+
+	/**
+	 * Runs the job once per worker and blocks until all parts have finished. The calling thread runs any part not yet claimed by a pooled
+	 * worker, which also makes nested calls from within a handler safe.
+	 */
+	private void run(Job aJob)
+	{
+		ExecutorService pool = pool();
+		Execution execution = new Execution(aJob, mThreads);
+
+		mExecutions.add(execution);
 
 		try
 		{
-			wait();
+			for (int i = 1; i < execution.mParts; i++)
+			{
+				pool.execute(execution);
+			}
+
+			execution.run();
+
+			for (;;)
+			{
+				try
+				{
+					execution.mLatch.await();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
 		}
-		catch (InterruptedException e)
+		finally
 		{
+			mExecutions.remove(execution);
 		}
+	}
+
 
-		for (int i = 0; i < mWorkers.length; i++)
+	private ExecutorService pool()
+	{
+		ExecutorService pool = mPool;
+
+		if (pool != null)
 		{
-			mWorkers[i] = null;
+			return pool;
 		}
+
+		return poolSync();
 	}
 
 
-	private Object aquire()
+	private synchronized ExecutorService poolSync()
 	{
-		Object parameter;
-
-		if (mCancelled || (parameter = mSupplier.get()) == null)
+		if (mPool == null)
 		{
-			synchronized (this)
-			{
-				mShutdownCount++;
+			boolean virtual = mVirtualThreads;
 
-				if (mShutdownCount == mWorkers.length)
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(mThreads, mThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), aRunnable ->
+			{
+				if (virtual)
 				{
-					mCancelled = true;
-					notify();
+					return Thread.ofVirtual().unstarted(aRunnable);
 				}
-			}
+				Thread t = Executors.defaultThreadFactory().newThread(aRunnable);
+				t.setDaemon(true);
+				return t;
+			});
+			pool.allowCoreThreadTimeOut(true);
 
-			return null;
+			mPool = pool;
 		}
 
-		return parameter;
+		return mPool;
+	}
+
+
+	private static <T> void handle(Handler<T> aHandler, T aParameter)
+	{
+		try
+		{
+			aHandler.run(aParameter);
+		}
+		catch (Exception | Error e)
+		{
+			e.printStackTrace(System.out);
+		}
 	}
 
 
-	private class Worker<T> extends Thread
+	/**
+	 * A single call to one of the execute methods. Each part is claimed by exactly one thread, a thread claims parts until none remain.
+	 */
+	private static class Execution implements Runnable
 	{
-		private int mIndex;
+		private final Job mJob;
+		private final int mParts;
+		private final AtomicInteger mNextPart;
+		private final CountDownLatch mLatch;
+		private volatile boolean mCancelled;
 
-		public Worker(int aIndex)
+		Execution(Job aJob, int aParts)
 		{
-			mIndex = aIndex;
+			mJob = aJob;
+			mParts = aParts;
+			mNextPart = new AtomicInteger();
+			mLatch = new CountDownLatch(aParts);
 		}
 
 		@Override
 		public void run()
 		{
-			try
+			for (int part; mNextPart.get() < mParts && (part = mNextPart.getAndIncrement()) < mParts;)
 			{
-				for (;;)
+				try
 				{
-					T parameter = (T)aquire();
-
-					if (parameter == null)
-					{
-						break;
-					}
-
-					try
-					{
-						mHandler.run(parameter);
-					}
-					catch (Exception | Error e)
-					{
-						e.printStackTrace(System.out);
-					}
+					mJob.run(this, part);
+				}
+				catch (Exception | Error e)
+				{
+					e.printStackTrace(System.out);
+				}
+				finally
+				{
+					mLatch.countDown();
 				}
-			}
-			finally
-			{
-				mWorkers[mIndex] = null;
 			}
 		}
 	}
 
 
+	@FunctionalInterface
+	private interface Job
+	{
+		void run(Execution aExecution, int aWorkerIndex);
+	}
+
+
 	@FunctionalInterface
 	public interface Handler<T>
 	{
 		void run(T aParameter) throws Exception;
 	}
+
+
+	@FunctionalInterface
+	public interface IntHandler
+	{
+		void run(int aIndex) throws Exception;
+	}
+
+
+	@FunctionalInterface
+	public interface LongHandler
+	{
+		void run(long aIndex) throws Exception;
+	}
 }
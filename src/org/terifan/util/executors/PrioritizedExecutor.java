@@ -1,17 +1,39 @@
 package org.terifan.util.executors;
 
 import java.lang.management.ManagementFactory;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import org.terifan.util.executors.PrioritizedExecutor.PriorityRunnableTask;
 
 
+/**
+ * PrioritizedExecutor executes tasks in the order of their priority using a fixed number of worker threads. The priority of a task is
+ * computed once when the task is submitted and kept in an indexed heap, making both submit and take O(log n). Tasks equal to an already
+ * queued task are ignored.
+ * <p>
+ * When the context the priorities depend on changes (e.g. a viewport is moved) call <code>priorityChanged</code>. The queued tasks are
+ * then rescored in parallel chunks in the background and each score is stamped with the epoch it was computed in. Until a task has been
+ * rescored its score is stale and the task is rescored lazily if it reaches the head of the queue. Between changes no scoring happens when
+ * tasks are dispatched.
+ * </p>
+ * <p>
+ * Note: the comparator may be called concurrently from multiple threads.
+ * </p>
+ */
 public class PrioritizedExecutor<T extends Runnable> implements AutoCloseable
 {
+	private final static int CHUNK_SIZE = 1024;
+
+	private final Object mLock = new Object();
+	private final HashMap<T, Node<T>> mIndex;
 	private Function<T, Double> mComparator;
-	private LinkedList<T> mQueue;
-	private Worker mWorker;
+	private Node<T>[] mHeap;
+	private int mSize;
+	private Thread[] mWorkers;
+	private volatile int mEpoch;
 	private boolean mClose;
 
 
@@ -21,12 +43,14 @@ public class PrioritizedExecutor<T extends Runnable> implements AutoCloseable
 	 * @param aNumThreads a positive number equals number of threads to use, zero or a negative number results in total available processors
 	 * minus provided number.
 	 * @param aComparator a Function evaluating a task and returning it's priority, lower numbers are executed first. This Function is
-	 * called for each task when a task is acquired from the internal queue.
+	 * called for each task when the task is submitted and when the executor is reprioritized.
 	 */
 	public PrioritizedExecutor(int aNumThreads, Function<T, Double> aComparator)
 	{
 		int threads = aNumThreads > 0 ? aNumThreads : Math.max(1, ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors() + aNumThreads);
 
+		mIndex = new HashMap<>();
+
 		init(aComparator, threads);
 	}
 
@@ -36,11 +60,19 @@ public class PrioritizedExecutor<T extends Runnable> implements AutoCloseable
 	 *
 	 * @param aThreads number of threads expressed as a number between 0 and 1 out of total available CPUs
 	 * @param aComparator a Function evaluating a task and returning it's priority, lower numbers are executed first. This Function is
-	 * called for each task when a task is acquired from the internal queue.
+	 * called for each task when the task is submitted and when the executor is reprioritized.
 	 */
 	public PrioritizedExecutor(float aThreads, Function<T, Double> aComparator)
 	{
-		int threads = (int)Math.max(1, aThreads * Math.min(1, ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors()));
+		if (aThreads < 0 || aThreads > 1)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		int cpu = ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
+		int threads = Math.max(1, Math.min(cpu, Math.round(cpu * aThreads)));
+
+		mIndex = new HashMap<>();
 
 		init(aComparator, threads);
 	}
@@ -49,10 +81,14 @@ public class PrioritizedExecutor<T extends Runnable> implements AutoCloseable
 	private void init(Function<T, Double> aComparator, int aThreads)
 	{
 		mComparator = aComparator;
-		mQueue = new LinkedList<>();
+		mHeap = newHeap(16);
 
-		mWorker = new Worker();
-		mWorker.start();
+		mWorkers = new Thread[aThreads];
+		for (int i = 0; i < aThreads; i++)
+		{
+			mWorkers[i] = new Worker();
+			mWorkers[i].start();
+		}
 	}
 
 
@@ -61,37 +97,24 @@ public class PrioritizedExecutor<T extends Runnable> implements AutoCloseable
 		@Override
 		public void run()
 		{
-			while (!mClose)
+			for (T next; (next = take()) != null;)
 			{
-				boolean b;
-				synchronized (mQueue)
+				try
 				{
-					b = mQueue.isEmpty();
-				}
-
-				if (b)
-				{
-					try
-					{
-						synchronized (PrioritizedExecutor.class)
-						{
-							PrioritizedExecutor.class.wait();
-						}
-					}
-					catch (InterruptedException e)
-					{
-					}
+					next.run();
 				}
-
-				for (T next; (next = take()) != null;)
+				catch (Exception | Error e)
 				{
-					next.run();
+					e.printStackTrace(System.out);
 				}
 			}
 		}
 	}
 
 
+	/**
+	 * Add a task to the queue. If an equal task is already queued then this call has no effect.
+	 */
 	public void submit(T aElement)
 	{
 		if (aElement == null)
@@ -99,81 +122,312 @@ public class PrioritizedExecutor<T extends Runnable> implements AutoCloseable
 			throw new IllegalArgumentException();
 		}
 
-		synchronized (mQueue)
+		synchronized (mLock)
 		{
-			for (int i = 0; i < mQueue.size(); i++)
+			if (mClose)
 			{
-				if (mQueue.get(i).equals(aElement))
-				{
-					return;
-				}
+				throw new IllegalStateException("Executor is closed");
+			}
+			if (mIndex.containsKey(aElement))
+			{
+				return;
+			}
+
+			Node<T> node = new Node<>(aElement, score(aElement), mEpoch);
+			mIndex.put(aElement, node);
+
+			if (mSize == mHeap.length)
+			{
+				Node<T>[] tmp = newHeap(2 * mSize);
+				System.arraycopy(mHeap, 0, tmp, 0, mSize);
+				mHeap = tmp;
 			}
 
-			mQueue.add(aElement);
+			node.mPosition = mSize;
+			mHeap[mSize++] = node;
+			siftUp(node.mPosition);
+
+			mLock.notify();
 		}
+	}
+
 
-		synchronized (PrioritizedExecutor.class)
+	/**
+	 * Remove a queued task. Return true if the task was queued.
+	 */
+	public boolean cancel(T aElement)
+	{
+		synchronized (mLock)
 		{
-			PrioritizedExecutor.class.notifyAll();
+			Node<T> node = mIndex.remove(aElement);
+
+			if (node == null)
+			{
+				return false;
+			}
+
+			removeAt(node.mPosition);
+			return true;
 		}
 	}
 
 
-	@Override
-	public void close()
+	/**
+	 * Recompute the priority of all queued tasks and wait for the rescoring to finish. Call this method when the state the comparator
+	 * depends on has changed.
+	 */
+	public void reprioritize()
 	{
-		mClose = true;
+		priorityChanged().join();
+	}
+
 
-		synchronized (PrioritizedExecutor.class)
+	/**
+	 * Signal that the state the comparator depends on has changed. This method returns immediately while queued tasks are rescored in
+	 * parallel chunks. Scores are applied to the queue one chunk at a time, a chunk computed for an older epoch than the current is discarded.
+	 *
+	 * @return
+	 *   a future completing when all tasks queued at the time of the call have been rescored
+	 */
+	public CompletableFuture<Void> priorityChanged()
+	{
+		Node<T>[] nodes;
+		int epoch;
+
+		synchronized (mLock)
 		{
-			PrioritizedExecutor.class.notifyAll();
+			epoch = ++mEpoch;
+			nodes = Arrays.copyOf(mHeap, mSize);
 		}
+
+		CompletableFuture<?>[] chunks = new CompletableFuture<?>[(nodes.length + CHUNK_SIZE - 1) / CHUNK_SIZE];
+
+		for (int i = 0; i < chunks.length; i++)
+		{
+			int from = i * CHUNK_SIZE;
+			int to = Math.min(from + CHUNK_SIZE, nodes.length);
+
+			chunks[i] = CompletableFuture.runAsync(() -> rescore(nodes, from, to, epoch));
+		}
+
+		return CompletableFuture.allOf(chunks);
 	}
 
 
-	private T take()
+	private void rescore(Node<T>[] aNodes, int aFrom, int aTo, int aEpoch)
 	{
-		T closest = null;
-		double distance = Integer.MAX_VALUE;
+		double[] scores = new double[aTo - aFrom];
 
-		int size;
-		synchronized (mQueue)
+		for (int i = aFrom; i < aTo; i++)
 		{
-			size = mQueue.size();
+			if (mEpoch != aEpoch)
+			{
+				return;
+			}
+
+			scores[i - aFrom] = score(aNodes[i].mTask);
 		}
 
-		for (int i = 0; i < size; i++)
+		synchronized (mLock)
 		{
-			T task;
+			if (mEpoch != aEpoch)
+			{
+				return;
+			}
 
-			synchronized (mQueue)
+			for (int i = aFrom; i < aTo; i++)
 			{
-				task = mQueue.get(i);
+				Node<T> node = aNodes[i];
+
+				if (node.mPosition >= 0 && node.mEpoch != aEpoch)
+				{
+					node.mScore = scores[i - aFrom];
+					node.mEpoch = aEpoch;
+
+					siftDown(node.mPosition);
+					siftUp(node.mPosition);
+				}
 			}
+		}
+	}
+
+
+	/**
+	 * Return number of tasks waiting to be executed.
+	 */
+	public int size()
+	{
+		synchronized (mLock)
+		{
+			return mSize;
+		}
+	}
 
-			double d = Math.abs(mComparator.apply(task));
 
-			if (d < distance)
+	/**
+	 * Stop accepting new tasks. Workers will finish any queued tasks before stopping.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (mLock)
+		{
+			mClose = true;
+			mLock.notifyAll();
+		}
+	}
+
+
+	/**
+	 * Blocks until a task is available, return null when the executor has been closed and the queue is empty.
+	 */
+	private T take()
+	{
+		synchronized (mLock)
+		{
+			while (mSize == 0)
 			{
-				distance = d;
-				closest = task;
+				if (mClose)
+				{
+					return null;
+				}
+
+				try
+				{
+					mLock.wait();
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+
+			Node<T> node = mHeap[0];
 
-				if (distance == 0)
+			while (node.mEpoch != mEpoch)
+			{
+				try
+				{
+					node.mScore = score(node.mTask);
+				}
+				catch (Exception | Error e)
 				{
-					break;
+					// keep the stale score, a failing comparator must not stop the worker
+					e.printStackTrace(System.out);
 				}
+
+				node.mEpoch = mEpoch;
+
+				siftDown(0);
+				node = mHeap[0];
+			}
+
+			removeAt(0);
+			mIndex.remove(node.mTask);
+
+			return node.mTask;
+		}
+	}
+
+
+	private double score(T aTask)
+	{
+		return Math.abs(mComparator.apply(aTask));
+	}
+
+
+	private void removeAt(int aPosition)
+	{
+		mHeap[aPosition].mPosition = -1;
+		mSize--;
+
+		if (aPosition != mSize)
+		{
+			mHeap[aPosition] = mHeap[mSize];
+			mHeap[aPosition].mPosition = aPosition;
+			mHeap[mSize] = null;
+
+			siftDown(aPosition);
+			siftUp(aPosition);
+		}
+		else
+		{
+			mHeap[mSize] = null;
+		}
+	}
+
+
+	private void siftUp(int aPosition)
+	{
+		Node<T> node = mHeap[aPosition];
+
+		while (aPosition > 0)
+		{
+			int parent = (aPosition - 1) >>> 1;
+
+			if (mHeap[parent].mScore <= node.mScore)
+			{
+				break;
 			}
+
+			mHeap[aPosition] = mHeap[parent];
+			mHeap[aPosition].mPosition = aPosition;
+			aPosition = parent;
 		}
 
-		if (closest != null)
+		mHeap[aPosition] = node;
+		node.mPosition = aPosition;
+	}
+
+
+	private void siftDown(int aPosition)
+	{
+		Node<T> node = mHeap[aPosition];
+		int half = mSize >>> 1;
+
+		while (aPosition < half)
 		{
-			synchronized (mQueue)
+			int child = 2 * aPosition + 1;
+			int right = child + 1;
+
+			if (right < mSize && mHeap[right].mScore < mHeap[child].mScore)
 			{
-				mQueue.remove(closest);
+				child = right;
 			}
+			if (node.mScore <= mHeap[child].mScore)
+			{
+				break;
+			}
+
+			mHeap[aPosition] = mHeap[child];
+			mHeap[aPosition].mPosition = aPosition;
+			aPosition = child;
 		}
 
-		return closest;
+		mHeap[aPosition] = node;
+		node.mPosition = aPosition;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static <T> Node<T>[] newHeap(int aCapacity)
+	{
+		return (Node<T>[])new Node<?>[aCapacity];
+	}
+
+
+	private static class Node<T>
+	{
+		final T mTask;
+		double mScore;
+		int mPosition;
+		int mEpoch;
+
+		Node(T aTask, double aScore, int aEpoch)
+		{
+			mTask = aTask;
+			mScore = aScore;
+			mEpoch = aEpoch;
+		}
 	}
 
 
@@ -1,6 +1,11 @@
 package org.terifan.util.executors;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 
 
@@ -11,18 +16,43 @@ import java.util.function.Consumer;
  * The initializer can be used to open a file/database while the destroyer can be used to close file/database.
  * </p>
  * <p>
+ * Scheduled tasks are pushed on a lock-free stack which the worker drains in a single atomic operation, reversing the drained tasks to
+ * restore the order they were scheduled in.
+ * </p>
+ * <p>
+ * When the queue is empty the worker parks for at most the destroy delay and is unparked as soon as a task is scheduled.
+ * </p>
+ * <p>
  * NOTE: call the shutdown() method before closing an application to ensure the destroyer method is called.
  * </p>
+ * <p>
+ * NOTE: the setters return a typed executor, so a diamond followed by a setter chain infers <code>QueuedExecutor&lt;Object&gt;</code>.
+ * Spell out the type argument when chaining:
+ * </p>
+ * <pre>
+ * QueuedExecutor&lt;Integer&gt; executor = new QueuedExecutor&lt;Integer&gt;(10).setHandler(aTask -&gt; process(aTask));
+ * </pre>
  */
 public class QueuedExecutor<T>
 {
+	private final static int MAX_RETAINED_BATCH = 1024;
+
 	private final Object mShutdownLock = new Object();
 
-	private final ArrayList<T> mTasks;
+	private final AtomicReference<Node<T>> mTasks;
+	private final AtomicBoolean mRunning;
+	private volatile Thread mParkedWorker;
+	private volatile long mIdleNanos;
+	private volatile long mWakeUpCount;
+	private volatile long mInitializeCount;
+	private volatile long mDestroyCount;
 	private long mDestroyDelay;
-	private boolean mShuttingDown;
-	private Worker mWorker;
+	private volatile boolean mShuttingDown;
+	private boolean mVirtualThreads;
 	private Consumer<T> mHandler;
+	private Consumer<List<T>> mBatchHandler;
+	private int mMaxBatchSize;
+	private long mMaxLingerNanos;
 	private Runnable mInitializer;
 	private Runnable mDestroyer;
 
@@ -46,7 +76,8 @@ public class QueuedExecutor<T>
 	 */
 	public QueuedExecutor(long aDestroyDelay)
 	{
-		mTasks = new ArrayList<>();
+		mTasks = new AtomicReference<>();
+		mRunning = new AtomicBoolean();
 		mDestroyDelay = aDestroyDelay;
 		mHandler = dummy -> {};
 		mInitializer = () -> {};
@@ -54,27 +85,85 @@ public class QueuedExecutor<T>
 	}
 
 
-	public QueuedExecutor setHandler(Consumer<T> aHandler)
+	/**
+	 * Sets a handler invoked once for each task. Replaces any batch handler.
+	 */
+	public QueuedExecutor<T> setHandler(Consumer<T> aHandler)
 	{
 		mHandler = aHandler;
+		mBatchHandler = null;
 		return this;
 	}
 
 
-	public QueuedExecutor setInitializer(Runnable aInitializer)
+	/**
+	 * Sets a handler invoked with all tasks that have accumulated in the queue. Replaces any handler.
+	 *
+	 * @see #setBatchHandler(java.util.function.Consumer, int, long)
+	 */
+	public QueuedExecutor<T> setBatchHandler(Consumer<List<T>> aHandler)
+	{
+		return setBatchHandler(aHandler, Integer.MAX_VALUE, 0);
+	}
+
+
+	/**
+	 * Sets a handler invoked with lists of tasks instead of once per task. The worker drains whatever has accumulated in the queue and if
+	 * fewer tasks than the maximum batch size are available it waits up to the linger time for more tasks before invoking the handler.
+	 * Replaces any handler.
+	 *
+	 * @param aHandler
+	 *   receives the tasks in the order they were scheduled. The handler may keep the list.
+	 * @param aMaxBatchSize
+	 *   maximum number of tasks provided in a single call
+	 * @param aMaxLingerMillis
+	 *   maximum time to wait for a batch to fill up, zero to never wait
+	 */
+	public QueuedExecutor<T> setBatchHandler(Consumer<List<T>> aHandler, int aMaxBatchSize, long aMaxLingerMillis)
+	{
+		if (aMaxBatchSize < 1 || aMaxLingerMillis < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		mBatchHandler = aHandler;
+		mMaxBatchSize = aMaxBatchSize;
+		mMaxLingerNanos = TimeUnit.MILLISECONDS.toNanos(aMaxLingerMillis);
+		return this;
+	}
+
+
+	public QueuedExecutor<T> setInitializer(Runnable aInitializer)
 	{
 		mInitializer = aInitializer;
 		return this;
 	}
 
 
-	public QueuedExecutor setDestroyer(Runnable aDestroyer)
+	public QueuedExecutor<T> setDestroyer(Runnable aDestroyer)
 	{
 		mDestroyer = aDestroyer;
 		return this;
 	}
 
 
+	/**
+	 * Run the worker on a virtual thread instead of a platform thread. The worker is started when tasks are scheduled and stopped when
+	 * the queue has been idle, which is cheap with virtual threads.
+	 */
+	public QueuedExecutor<T> setVirtualThreads(boolean aVirtualThreads)
+	{
+		mVirtualThreads = aVirtualThreads;
+		return this;
+	}
+
+
+	public boolean isVirtualThreads()
+	{
+		return mVirtualThreads;
+	}
+
+
 	/**
 	 * Add a task to the executor. Tasks can be scheduled while the executor is working. If no executor is working then an executor instance
 	 * will be started.
@@ -86,96 +175,278 @@ public class QueuedExecutor<T>
 			throw new IllegalStateException("Executor is shutting down and doesn't accept any more tasks");
 		}
 
-		synchronized (mTasks)
+		Node<T> node = new Node<>(aTask);
+
+		do
+		{
+			node.mNext = mTasks.get();
+		}
+		while (!mTasks.compareAndSet(node.mNext, node));
+
+		Thread parked = mParkedWorker;
+		if (parked != null)
 		{
-			mTasks.add(aTask);
+			LockSupport.unpark(parked);
 		}
 
-		synchronized (mTasks)
+		if (mRunning.compareAndSet(false, true))
 		{
-			if (mWorker == null)
+			if (mVirtualThreads)
+			{
+				Thread.ofVirtual().start(new Worker());
+			}
+			else
 			{
-				mWorker = new Worker();
-				mWorker.start();
+				new Thread(new Worker()).start();
 			}
 		}
 	}
 
 
+	/**
+	 * Stop accepting tasks and wait for the worker to process any queued tasks and call the destroyer.
+	 */
 	public void shutdown()
 	{
 		synchronized (mShutdownLock)
 		{
 			mShuttingDown = true;
 
-			try
+			Thread parked = mParkedWorker;
+			if (parked != null)
 			{
-				mShutdownLock.wait();
+				LockSupport.unpark(parked);
 			}
-			catch (InterruptedException e)
+
+			while (mRunning.get())
 			{
+				try
+				{
+					mShutdownLock.wait();
+				}
+				catch (InterruptedException e)
+				{
+				}
 			}
 		}
 	}
 
 
-	private class Worker extends Thread
+	/**
+	 * Return the total time the worker has spent waiting for tasks.
+	 */
+	public long getIdleTimeMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(mIdleNanos);
+	}
+
+
+	/**
+	 * Return how many times a waiting worker has been woken up by a scheduled task.
+	 */
+	public long getWakeUpCount()
 	{
+		return mWakeUpCount;
+	}
+
+
+	/**
+	 * Return how many times the initializer has been called.
+	 */
+	public long getInitializeCount()
+	{
+		return mInitializeCount;
+	}
+
+
+	/**
+	 * Return how many times the destroyer has been called.
+	 */
+	public long getDestroyCount()
+	{
+		return mDestroyCount;
+	}
+
+
+	/**
+	 * Removes all queued tasks and adds them to the list in the order they were scheduled.
+	 *
+	 * @return false if the queue was empty
+	 */
+	private boolean drain(ArrayList<T> aBatch)
+	{
+		Node<T> node = mTasks.getAndSet(null);
+
+		if (node == null)
+		{
+			return false;
+		}
+
+		int start = aBatch.size();
+
+		for (; node != null; node = node.mNext)
+		{
+			aBatch.add(node.mTask);
+		}
+
+		for (int i = start, j = aBatch.size() - 1; i < j; i++, j--)
+		{
+			aBatch.set(i, aBatch.set(j, aBatch.get(i)));
+		}
+
+		return true;
+	}
+
+
+	private class Worker implements Runnable
+	{
+		private ArrayList<T> mBatch = new ArrayList<>();
+
 		@Override
 		public void run()
 		{
-			synchronized (mTasks)
+			do
 			{
+				mInitializeCount++;
 				mInitializer.run();
-			}
 
-			for (;;)
-			{
 				for (;;)
 				{
-					T task;
-					synchronized (mTasks)
+					while (drain(mBatch))
 					{
-						if (mTasks.isEmpty())
+						Consumer<List<T>> batchHandler = mBatchHandler;
+
+						if (batchHandler != null)
 						{
-							break;
+							linger();
+							processBatch(batchHandler);
+						}
+						else
+						{
+							process(mHandler);
+						}
+
+						// a burst of tasks would otherwise leave the worker holding the largest batch capacity ever seen
+						if (mBatch.size() > MAX_RETAINED_BATCH)
+						{
+							mBatch = new ArrayList<>();
+						}
+						else
+						{
+							mBatch.clear();
 						}
-						task = mTasks.remove(0);
 					}
-					mHandler.accept(task);
-				}
 
-				synchronized (mShutdownLock)
-				{
-					if (mShuttingDown)
+					if (mShuttingDown || !await(TimeUnit.MILLISECONDS.toNanos(mDestroyDelay)))
 					{
-						mShutdownLock.notify();
 						break;
 					}
+
+					mWakeUpCount++;
 				}
 
-				try
+				mDestroyCount++;
+				mDestroyer.run();
+
+				mRunning.set(false);
+
+				// a task scheduled after the queue was found empty but before the running flag was cleared would otherwise be stranded
+			}
+			while (mTasks.get() != null && mRunning.compareAndSet(false, true));
+
+			synchronized (mShutdownLock)
+			{
+				mShutdownLock.notifyAll();
+			}
+		}
+
+
+		/**
+		 * Wait for the batch to fill up or the linger time to elapse.
+		 */
+		private void linger()
+		{
+			long deadline = System.nanoTime() + mMaxLingerNanos;
+
+			for (long remaining; mBatch.size() < mMaxBatchSize && (remaining = deadline - System.nanoTime()) > 0;)
+			{
+				if (!drain(mBatch) && !await(remaining))
 				{
-					Thread.sleep(mDestroyDelay);
+					break;
 				}
-				catch (InterruptedException e)
+			}
+		}
+
+
+		/**
+		 * Parks the worker until a task is scheduled, the executor is shutting down or the time has elapsed.
+		 *
+		 * @return true if a task is available
+		 */
+		private boolean await(long aNanos)
+		{
+			long start = System.nanoTime();
+			long deadline = start + aNanos;
+
+			mParkedWorker = Thread.currentThread();
+			try
+			{
+				for (long remaining; mTasks.get() == null && !mShuttingDown && (remaining = deadline - System.nanoTime()) > 0;)
 				{
+					LockSupport.parkNanos(this, remaining);
 				}
+			}
+			finally
+			{
+				mParkedWorker = null;
+				mIdleNanos += System.nanoTime() - start;
+			}
+
+			return mTasks.get() != null;
+		}
 
-				synchronized (mTasks)
+
+		private void processBatch(Consumer<List<T>> aBatchHandler)
+		{
+			for (int i = 0; i < mBatch.size(); i += mMaxBatchSize)
+			{
+				try
 				{
-					if (mTasks.isEmpty())
-					{
-						break;
-					}
+					aBatchHandler.accept(new ArrayList<>(mBatch.subList(i, Math.min(mBatch.size(), i + mMaxBatchSize))));
+				}
+				catch (Exception | Error e)
+				{
+					e.printStackTrace(System.out);
 				}
 			}
+		}
 
-			synchronized (mTasks)
+
+		private void process(Consumer<T> aHandler)
+		{
+			for (int i = 0; i < mBatch.size(); i++)
 			{
-				mWorker = null;
-				mDestroyer.run();
+				try
+				{
+					aHandler.accept(mBatch.get(i));
+				}
+				catch (Exception | Error e)
+				{
+					e.printStackTrace(System.out);
+				}
 			}
 		}
 	}
+
+
+	private static class Node<T>
+	{
+		final T mTask;
+		Node<T> mNext;
+
+		Node(T aTask)
+		{
+			mTask = aTask;
+		}
+	}
 }
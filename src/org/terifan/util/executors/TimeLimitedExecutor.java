@@ -1,5 +1,8 @@
 package org.terifan.util.executors;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 
 /**
  * The TimeLimitedExecutor executes a Runnable for a maximum time. If the time limit is reached the working thread will be interrupted.
@@ -7,18 +10,27 @@ package org.terifan.util.executors;
  * <pre>
  * String s = new TimeLimitedExecutor<String>().waitFor(5000, work).getResult();
  * </pre>
+ * <p>
+ * The work is run on the threads of a shared TimeLimitedExecutorService and the time limit is tracked by its TimerWheel, no thread is
+ * created per call. Use a TimeLimitedExecutorService directly to submit work without blocking.
+ * </p>
  */
 public class TimeLimitedExecutor<R>
 {
+	private final static TimeLimitedExecutorService SHARED = new TimeLimitedExecutorService();
+
 	private final Object mLock;
-	private long mStartTime;
-	private long mStopTime;
-	private boolean mExpired;
-	private boolean mRunning;
-	private boolean mInterrupted;
+	private volatile long mStartTime;
+	private volatile long mStopTime;
+	private volatile boolean mExpired;
+	private volatile boolean mRunning;
+	private volatile boolean mInterrupted;
 	private boolean mInterruptOnTimeLimit;
-	private R mResult;
-	private Exception mException;
+	private boolean mStarted;
+	private volatile R mResult;
+	private volatile Exception mException;
+	private Thread mThread;
+	private TimerWheel.Timeout mTimeout;
 
 
 	public TimeLimitedExecutor()
@@ -52,79 +64,135 @@ public class TimeLimitedExecutor<R>
 	 */
 	public TimeLimitedExecutorResult<R> waitFor(long aTimeOut, Work<R> aWork)
 	{
-		if (mStartTime != 0)
+		return SHARED.start(this, aTimeOut, aWork).await();
+	}
+
+
+	/**
+	 * Hand the work to the pool and register the time limit with the timer. Returns immediately.
+	 */
+	TimeLimitedExecutorResult<R> start(Executor aPool, TimerWheel aTimer, long aTimeOut, Work<R> aWork)
+	{
+		synchronized (mLock)
 		{
-			throw new IllegalArgumentException("Instances cannot be reused.");
+			if (mStarted)
+			{
+				throw new IllegalArgumentException("Instances cannot be reused.");
+			}
+
+			mStarted = true;
+			mRunning = true;
+			mTimeout = aTimer.schedule(aTimeOut, this::expire);
 		}
 
-		Thread thread = new Thread()
+		try
 		{
+			aPool.execute(() -> run(aWork));
+		}
+		catch (RejectedExecutionException e)
+		{
+			synchronized (mLock)
 			{
-				setDaemon(true);
+				mTimeout.cancel();
+				mRunning = false;
+				mLock.notifyAll();
 			}
+			throw e;
+		}
+
+		return new TimeLimitedExecutorResult<>(this);
+	}
+
 
+	private void run(Work<R> aWork)
+	{
+		synchronized (mLock)
+		{
+			mThread = Thread.currentThread();
 
-			@Override
-			public void run()
+			if (mExpired && mInterruptOnTimeLimit)
 			{
-				mStartTime = System.currentTimeMillis();
-				mRunning = true;
-				try
-				{
-					mResult = aWork.run(TimeLimitedExecutor.this);
-				}
-				catch (InterruptedException e)
-				{
-					mInterrupted = true;
-				}
-				catch (Exception e)
-				{
-					mException = e;
-				}
-				catch (Error e)
-				{
-					mException = new WrappedException(e);
-				}
-				finally
-				{
-					mRunning = false;
-					mStopTime = System.currentTimeMillis();
-					try
-					{
-						synchronized (mLock)
-						{
-							mLock.notify();
-						}
-					}
-					catch (Throwable e)
-					{
-						// ignore
-					}
-				}
+				mThread.interrupt();
 			}
-		};
-		thread.start();
+		}
+
+		mStartTime = System.currentTimeMillis();
 
 		try
 		{
+			mResult = aWork.run(this);
+		}
+		catch (InterruptedException e)
+		{
+			mInterrupted = true;
+		}
+		catch (Exception e)
+		{
+			mException = e;
+		}
+		catch (Error e)
+		{
+			mException = new WrappedException(e);
+		}
+		finally
+		{
+			mStopTime = System.currentTimeMillis();
+
 			synchronized (mLock)
 			{
-				mLock.wait(mStartTime + aTimeOut);
+				mTimeout.cancel();
+				mThread = null;
+				mRunning = false;
+				mLock.notifyAll();
 			}
 
-			mExpired = mRunning;
+			// the pooled thread is reused, clear an interrupt that arrived after the work finished
+			Thread.interrupted();
+		}
+	}
+
 
-			if (mRunning && mInterruptOnTimeLimit)
+	/**
+	 * Called by the timer when the time limit is reached.
+	 */
+	private void expire()
+	{
+		synchronized (mLock)
+		{
+			if (mRunning)
 			{
-				thread.interrupt();
+				mExpired = true;
+
+				if (mInterruptOnTimeLimit && mThread != null)
+				{
+					mThread.interrupt();
+				}
+
+				mLock.notifyAll();
 			}
 		}
-		catch (Exception | Error e)
+	}
+
+
+	/**
+	 * Blocks until the work has finished or the time limit has been reached.
+	 */
+	void awaitDeadline()
+	{
+		try
 		{
-			// ignore
+			synchronized (mLock)
+			{
+				while (mRunning && !mExpired)
+				{
+					mLock.wait();
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
 		}
-
-		return new TimeLimitedExecutorResult<>(this);
 	}
 
 
@@ -135,17 +203,17 @@ public class TimeLimitedExecutor<R>
 	{
 		try
 		{
-			while (mRunning)
+			synchronized (mLock)
 			{
-				synchronized (mLock)
+				while (mRunning)
 				{
-					mLock.wait(1000);
+					mLock.wait();
 				}
 			}
 		}
-		catch (Exception | Error e)
+		catch (InterruptedException e)
 		{
-			// ignore
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -247,6 +315,16 @@ public class TimeLimitedExecutor<R>
 		}
 
 
+		/**
+		 * Blocks until the work has finished or the time limit has been reached.
+		 */
+		public TimeLimitedExecutorResult<R> await()
+		{
+			mExecutor.awaitDeadline();
+			return this;
+		}
+
+
 		public TimeLimitedExecutorResult<R> awaitTermination()
 		{
 			mExecutor.awaitTermination();
@@ -0,0 +1,136 @@
+package org.terifan.util.executors;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.terifan.util.executors.TimeLimitedExecutor.TimeLimitedExecutorResult;
+import org.terifan.util.executors.TimeLimitedExecutor.Work;
+
+
+/**
+ * TimeLimitedExecutorService executes work for a maximum time using pooled threads. The time limits of all services are tracked by a
+ * single shared TimerWheel, if the limit is reached the worker thread is interrupted. A service can be reused for any number of calls.
+ *
+ * <pre>
+ * TimeLimitedExecutorService service = new TimeLimitedExecutorService();
+ * service.submit(5000, work).await().onExpired(e -&gt; System.out.println("timeout")).onDone(e -&gt; System.out.println(e));
+ * </pre>
+ * <p>
+ * Work runs on the shared DaemonThreadPool, worker threads are created on demand and idle workers are released after a minute.
+ * </p>
+ */
+public class TimeLimitedExecutorService implements AutoCloseable
+{
+	private volatile ExecutorService mVirtualPool;
+	private volatile boolean mVirtualThreads;
+	private boolean mInterruptOnTimeLimit;
+
+
+	public TimeLimitedExecutorService()
+	{
+		mInterruptOnTimeLimit = true;
+	}
+
+
+	/**
+	 * Run the work on virtual threads instead of pooled platform threads. Suitable for work spending most of its time blocked on I/O.
+	 */
+	public synchronized TimeLimitedExecutorService setVirtualThreads(boolean aVirtualThreads)
+	{
+		mVirtualThreads = aVirtualThreads;
+
+		shutdown();
+
+		return this;
+	}
+
+
+	public boolean isVirtualThreads()
+	{
+		return mVirtualThreads;
+	}
+
+
+	/**
+	 * Sets whether or not the worker thread should be interrupted when the time limit is reached. Default is true.
+	 */
+	public TimeLimitedExecutorService setInterruptOnTimeLimit(boolean aInterruptOnTimeLimit)
+	{
+		mInterruptOnTimeLimit = aInterruptOnTimeLimit;
+		return this;
+	}
+
+
+	/**
+	 * Start the work and return immediately. Use the <code>await</code> method of the result to wait for the work to finish or expire.
+	 */
+	public <R> TimeLimitedExecutorResult<R> submit(long aTimeOut, Work<R> aWork)
+	{
+		return start(new TimeLimitedExecutor<R>().setInterruptOnTimeLimit(mInterruptOnTimeLimit), aTimeOut, aWork);
+	}
+
+
+	/**
+	 * Start the work and block until it has finished or the time limit has been reached. If the limit was reached the work might still
+	 * be running.
+	 */
+	public <R> TimeLimitedExecutorResult<R> waitFor(long aTimeOut, Work<R> aWork)
+	{
+		return submit(aTimeOut, aWork).await();
+	}
+
+
+	<R> TimeLimitedExecutorResult<R> start(TimeLimitedExecutor<R> aExecutor, long aTimeOut, Work<R> aWork)
+	{
+		return aExecutor.start(pool(), TimerWheel.shared(), aTimeOut, aWork);
+	}
+
+
+	/**
+	 * Release the virtual thread executor. Work in progress will finish, a later call will start a new executor. Work on platform threads
+	 * runs on the shared DaemonThreadPool which is never shut down.
+	 */
+	public synchronized void shutdown()
+	{
+		if (mVirtualPool != null)
+		{
+			mVirtualPool.shutdown();
+			mVirtualPool = null;
+		}
+	}
+
+
+	@Override
+	public void close()
+	{
+		shutdown();
+	}
+
+
+	private ExecutorService pool()
+	{
+		if (!mVirtualThreads)
+		{
+			return DaemonThreadPool.shared();
+		}
+
+		ExecutorService pool = mVirtualPool;
+
+		if (pool != null)
+		{
+			return pool;
+		}
+
+		return poolSync();
+	}
+
+
+	private synchronized ExecutorService poolSync()
+	{
+		if (mVirtualPool == null)
+		{
+			mVirtualPool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().factory());
+		}
+
+		return mVirtualPool;
+	}
+}
@@ -0,0 +1,416 @@
+package org.terifan.util.executors;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * TimerWheel runs actions after a delay using a single daemon thread. Pending timeouts are kept in a hierarchical wheel of four levels
+ * with 64 slots each, scheduling and cancelling are O(1) regardless of the number of pending timeouts. Timeouts further away than the
+ * wheel can hold are cascaded down until they are due.
+ * <p>
+ * Actions are run on the timer thread and should be short, e.g. interrupting a thread or handing work to another executor.
+ * </p>
+ * <p>
+ * The timer thread parks until the next tick where a slot is due or a higher level slot cascades, it's not woken every tick while
+ * timeouts are pending.
+ * </p>
+ *
+ * <pre>
+ * Timeout timeout = timer.schedule(5000, () -&gt; thread.interrupt());
+ * ...
+ * timeout.cancel();
+ * </pre>
+ */
+public class TimerWheel implements AutoCloseable
+{
+	private final static int WHEEL_BITS = 6;
+	private final static int WHEEL_SIZE = 1 << WHEEL_BITS;
+	private final static int WHEEL_MASK = WHEEL_SIZE - 1;
+	private final static int LEVELS = 4;
+	private final static long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+	private final static TimerWheel SHARED = new TimerWheel();
+
+	private final Object mLock;
+	private final Timeout[][] mSlots;
+	private final long mTickNanos;
+	private final long mStartTime;
+	private long mTick;
+	private long mWakeTick;
+	private int mSize;
+	private Thread mThread;
+	private volatile boolean mClosed;
+
+
+	/**
+	 * Create a timer with one millisecond resolution.
+	 */
+	public TimerWheel()
+	{
+		this(1);
+	}
+
+
+	/**
+	 * Create a timer
+	 *
+	 * @param aTickMillis
+	 *   the resolution of the timer, actions are run at most this many milliseconds after they are due.
+	 */
+	public TimerWheel(long aTickMillis)
+	{
+		if (aTickMillis <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		mLock = new Object();
+		mSlots = new Timeout[LEVELS][WHEEL_SIZE];
+		mTickNanos = TimeUnit.MILLISECONDS.toNanos(aTickMillis);
+		mStartTime = System.nanoTime();
+		mWakeTick = Long.MAX_VALUE;
+	}
+
+
+	/**
+	 * Return a shared timer with one millisecond resolution. The shared timer cannot be closed.
+	 */
+	public static TimerWheel shared()
+	{
+		return SHARED;
+	}
+
+
+	/**
+	 * Run the action once the delay has passed.
+	 *
+	 * @return
+	 *   a handle that can be used to cancel the action before it's run
+	 */
+	public Timeout schedule(long aDelayMillis, Runnable aAction)
+	{
+		if (aAction == null)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		long delay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, aDelayMillis));
+
+		Timeout timeout = new Timeout(this, aAction);
+		Thread wakeUp = null;
+
+		synchronized (mLock)
+		{
+			if (mClosed)
+			{
+				throw new IllegalStateException("TimerWheel is closed");
+			}
+
+			long now = System.nanoTime() - mStartTime;
+
+			if (mSize == 0)
+			{
+				mTick = Math.max(mTick, now / mTickNanos);
+			}
+
+			timeout.mDeadline = (now + delay + mTickNanos - 1) / mTickNanos;
+			insert(timeout);
+
+			mSize++;
+
+			if (mThread == null)
+			{
+				mThread = new Thread(this::run, "TimerWheel");
+				mThread.setDaemon(true);
+				mThread.start();
+			}
+
+			if (timeout.mDeadline < mWakeTick)
+			{
+				mWakeTick = timeout.mDeadline;
+				wakeUp = mThread;
+			}
+		}
+
+		if (wakeUp != null)
+		{
+			LockSupport.unpark(wakeUp);
+		}
+
+		return timeout;
+	}
+
+
+	/**
+	 * Return number of pending timeouts.
+	 */
+	public int size()
+	{
+		synchronized (mLock)
+		{
+			return mSize;
+		}
+	}
+
+
+	/**
+	 * Stop the timer thread. Pending timeouts are discarded.
+	 */
+	@Override
+	public void close()
+	{
+		if (this == SHARED)
+		{
+			throw new IllegalStateException("The shared TimerWheel cannot be closed");
+		}
+
+		Thread thread;
+
+		synchronized (mLock)
+		{
+			mClosed = true;
+			thread = mThread;
+		}
+
+		if (thread != null)
+		{
+			LockSupport.unpark(thread);
+		}
+	}
+
+
+	private void run()
+	{
+		ArrayList<Timeout> expired = new ArrayList<>();
+
+		while (!mClosed)
+		{
+			long wakeTick;
+
+			synchronized (mLock)
+			{
+				long now = currentTick();
+
+				while (mTick < now && mSize > 0)
+				{
+					advance(expired);
+				}
+
+				if (mSize == 0)
+				{
+					mTick = Math.max(mTick, now);
+					mWakeTick = Long.MAX_VALUE;
+				}
+				else
+				{
+					mWakeTick = nextTick();
+				}
+
+				wakeTick = mWakeTick;
+			}
+
+			for (Timeout timeout : expired)
+			{
+				try
+				{
+					timeout.mAction.run();
+				}
+				catch (Exception | Error e)
+				{
+					e.printStackTrace(System.out);
+				}
+			}
+
+			expired.clear();
+
+			if (wakeTick == Long.MAX_VALUE)
+			{
+				LockSupport.park(this);
+			}
+			else
+			{
+				LockSupport.parkNanos(this, wakeTick * mTickNanos - (System.nanoTime() - mStartTime));
+			}
+		}
+	}
+
+
+	/**
+	 * Return the first tick after the current where a level 0 slot has timeouts due or a non-empty slot of a higher level cascades.
+	 */
+	private long nextTick()
+	{
+		long next = Long.MAX_VALUE;
+
+		for (int i = 1; i <= WHEEL_SIZE; i++)
+		{
+			if (mSlots[0][(int)(mTick + i) & WHEEL_MASK] != null)
+			{
+				next = mTick + i;
+				break;
+			}
+		}
+
+		for (int level = 1; level < LEVELS; level++)
+		{
+			int shift = WHEEL_BITS * level;
+
+			for (int slot = 0; slot < WHEEL_SIZE; slot++)
+			{
+				if (mSlots[level][slot] != null)
+				{
+					long rotation = (mTick >>> shift) + 1;
+					rotation += (slot - rotation) & WHEEL_MASK;
+					next = Math.min(next, rotation << shift);
+				}
+			}
+		}
+
+		return next;
+	}
+
+
+	private long currentTick()
+	{
+		return (System.nanoTime() - mStartTime) / mTickNanos;
+	}
+
+
+	/**
+	 * Move the wheel one tick forward, cascading higher levels whose slot is reached and collecting the timeouts that are due.
+	 */
+	private void advance(ArrayList<Timeout> aExpired)
+	{
+		mTick++;
+
+		for (int level = 1; level < LEVELS && (mTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0; level++)
+		{
+			int slot = (int)(mTick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+
+			reinsert(detach(level, slot), aExpired);
+		}
+
+		reinsert(detach(0, (int)mTick & WHEEL_MASK), aExpired);
+	}
+
+
+	private void reinsert(Timeout aTimeout, ArrayList<Timeout> aExpired)
+	{
+		for (Timeout timeout = aTimeout, next; timeout != null; timeout = next)
+		{
+			next = timeout.mNext;
+
+			if (timeout.mDeadline <= mTick)
+			{
+				timeout.mLevel = -1;
+				timeout.mPrev = null;
+				timeout.mNext = null;
+				mSize--;
+				aExpired.add(timeout);
+			}
+			else
+			{
+				insert(timeout);
+			}
+		}
+	}
+
+
+	private void insert(Timeout aTimeout)
+	{
+		long deadline = Math.min(Math.max(aTimeout.mDeadline, mTick + 1), mTick + MAX_DELTA);
+		long delta = deadline - mTick;
+
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1)))
+		{
+			level++;
+		}
+
+		int slot = (int)(deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+
+		Timeout head = mSlots[level][slot];
+		aTimeout.mLevel = level;
+		aTimeout.mSlot = slot;
+		aTimeout.mPrev = null;
+		aTimeout.mNext = head;
+		if (head != null)
+		{
+			head.mPrev = aTimeout;
+		}
+		mSlots[level][slot] = aTimeout;
+	}
+
+
+	private Timeout detach(int aLevel, int aSlot)
+	{
+		Timeout head = mSlots[aLevel][aSlot];
+		mSlots[aLevel][aSlot] = null;
+		return head;
+	}
+
+
+	private boolean cancel(Timeout aTimeout)
+	{
+		synchronized (mLock)
+		{
+			if (aTimeout.mLevel < 0)
+			{
+				return false;
+			}
+
+			if (aTimeout.mPrev == null)
+			{
+				mSlots[aTimeout.mLevel][aTimeout.mSlot] = aTimeout.mNext;
+			}
+			else
+			{
+				aTimeout.mPrev.mNext = aTimeout.mNext;
+			}
+			if (aTimeout.mNext != null)
+			{
+				aTimeout.mNext.mPrev = aTimeout.mPrev;
+			}
+
+			aTimeout.mLevel = -1;
+			aTimeout.mPrev = null;
+			aTimeout.mNext = null;
+			mSize--;
+
+			return true;
+		}
+	}
+
+
+	/**
+	 * A pending action of a TimerWheel.
+	 */
+	public static class Timeout
+	{
+		private final TimerWheel mWheel;
+		private final Runnable mAction;
+		private long mDeadline;
+		private int mLevel;
+		private int mSlot;
+		private Timeout mPrev;
+		private Timeout mNext;
+
+
+		Timeout(TimerWheel aWheel, Runnable aAction)
+		{
+			mWheel = aWheel;
+			mAction = aAction;
+		}
+
+
+		/**
+		 * Cancel the action. Return false if the action has already been run or cancelled.
+		 */
+		public boolean cancel()
+		{
+			return mWheel.cancel(this);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.terifan.util.executors;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Compares platform and virtual thread execution of I/O-bound tasks, simulated with a sleep.
+ */
+public class _TestVirtualThreads
+{
+	private final static int TASKS = 10_000;
+	private final static int SLEEP = 10;
+	private final static int PLATFORM_THREADS = 200;
+	private final static int VIRTUAL_CONCURRENCY = 5_000;
+
+
+	public static void main(String... args)
+	{
+		try
+		{
+			System.out.println("FixedThreadExecutor  platform: " + fixedThreadExecutor(false) + " ms");
+			System.out.println("FixedThreadExecutor  virtual:  " + fixedThreadExecutor(true) + " ms");
+			System.out.println("PollingExecutor      platform: " + pollingExecutor(false) + " ms");
+			System.out.println("PollingExecutor      virtual:  " + pollingExecutor(true) + " ms");
+			System.out.println("QueuedExecutor       platform: " + queuedExecutor(false) + " ms");
+			System.out.println("QueuedExecutor       virtual:  " + queuedExecutor(true) + " ms");
+		}
+		catch (Throwable e)
+		{
+			e.printStackTrace(System.out);
+		}
+	}
+
+
+	private static long fixedThreadExecutor(boolean aVirtual)
+	{
+		AtomicInteger count = new AtomicInteger();
+		long time = System.currentTimeMillis();
+
+		try (FixedThreadExecutor<Void> executor = new FixedThreadExecutor<Void>(PLATFORM_THREADS).setVirtualThreads(aVirtual ? VIRTUAL_CONCURRENCY : 0))
+		{
+			for (int i = 0; i < TASKS; i++)
+			{
+				executor.submit(() ->
+				{
+					Thread.sleep(SLEEP);
+					count.incrementAndGet();
+				});
+			}
+		}
+
+		assert count.get() == TASKS;
+
+		return System.currentTimeMillis() - time;
+	}
+
+
+	private static long pollingExecutor(boolean aVirtual)
+	{
+		AtomicInteger count = new AtomicInteger();
+		long time = System.currentTimeMillis();
+
+		new PollingExecutor(PLATFORM_THREADS).setVirtualThreads(aVirtual ? VIRTUAL_CONCURRENCY : 0).executeRange(0, TASKS, i ->
+		{
+			Thread.sleep(SLEEP);
+			count.incrementAndGet();
+		});
+
+		assert count.get() == TASKS;
+
+		return System.currentTimeMillis() - time;
+	}
+
+
+	/**
+	 * The QueuedExecutor worker is started and stopped repeatedly as bursts of tasks are scheduled.
+	 */
+	private static long queuedExecutor(boolean aVirtual)
+	{
+		AtomicInteger count = new AtomicInteger();
+		long time = System.currentTimeMillis();
+
+		QueuedExecutor<Integer> executor = new QueuedExecutor<Integer>(0)
+			.setVirtualThreads(aVirtual)
+			.setHandler(aTask -> count.incrementAndGet());
+
+		for (int i = 0; i < TASKS / 10; i++)
+		{
+			executor.schedule(i);
+
+			while (count.get() <= i)
+			{
+				Thread.onSpinWait();
+			}
+		}
+
+		return System.currentTimeMillis() - time;
+	}
+}
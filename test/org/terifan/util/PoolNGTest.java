@@ -0,0 +1,351 @@
+package org.terifan.util;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class PoolNGTest
+{
+	@Test
+	public void testReuseAndCapacity() throws InterruptedException
+	{
+		TestPool pool = new TestPool(2, 0);
+
+		Integer a = pool.claim();
+		pool.release(a);
+
+		assertEquals(pool.claim(), a);
+		assertEquals(pool.mCreated.get(), 1);
+
+		ArrayList<Integer> items = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+		{
+			items.add(pool.claim());
+		}
+		items.forEach(pool::release);
+
+		assertEquals(pool.size(), 2);
+		awaitCount(pool.mDestroyed, 3);
+
+		pool.close();
+
+		assertEquals(pool.size(), 0);
+		assertEquals(pool.mDestroyed.get(), 5);
+	}
+
+
+	@Test
+	public void testExpire() throws InterruptedException
+	{
+		TestPool pool = new TestPool(10, 1);
+
+		pool.release(pool.claim());
+
+		Thread.sleep(1100);
+
+		pool.claim();
+
+		assertEquals(pool.mCreated.get(), 2);
+		awaitCount(pool.mDestroyed, 1);
+	}
+
+
+	@Test
+	public void testConcurrentClaim() throws InterruptedException
+	{
+		TestPool pool = new TestPool(64, 0);
+		Set<Integer> inUse = ConcurrentHashMap.newKeySet();
+		AtomicInteger errors = new AtomicInteger();
+
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread(() ->
+			{
+				for (int i = 0; i < 100_000; i++)
+				{
+					Integer item = pool.claim();
+					if (!inUse.add(item))
+					{
+						errors.incrementAndGet();
+					}
+					inUse.remove(item);
+					pool.release(item);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertEquals(errors.get(), 0);
+		assertEquals(pool.size(), pool.mCreated.get() - pool.mDestroyed.get());
+		assertTrue(pool.mCreated.get() <= 64 + threads.length, "" + pool.mCreated.get());
+	}
+
+
+	@Test
+	public void testMaxTotal() throws Exception
+	{
+		TestPool pool = new TestPool(10, 0);
+		pool.maxTotal(2);
+
+		Integer a = pool.claim();
+		Integer b = pool.claim();
+
+		try
+		{
+			pool.claim(20);
+			fail();
+		}
+		catch (TimeoutException e)
+		{
+			// expected
+		}
+
+		ArrayList<Integer> order = new ArrayList<>();
+		Thread[] waiters = new Thread[2];
+		for (int i = 0; i < waiters.length; i++)
+		{
+			int index = i;
+			waiters[i] = new Thread(() ->
+			{
+				try
+				{
+					Integer item = pool.claim(5000);
+					synchronized (order)
+					{
+						order.add(index);
+					}
+					pool.release(item);
+				}
+				catch (Exception e)
+				{
+					e.printStackTrace(System.out);
+				}
+			});
+			waiters[i].start();
+
+			while (waiters[i].getState() != Thread.State.TIMED_WAITING)
+			{
+				Thread.sleep(1);
+			}
+		}
+
+		pool.release(a);
+		waiters[0].join();
+		pool.release(b);
+		waiters[1].join();
+
+		assertEquals(order.toString(), "[0, 1]");
+		assertEquals(pool.total(), 2);
+
+		Pool.Statistics stats = pool.getStatistics();
+
+		assertEquals(stats.getCreated(), 2);
+		assertEquals(stats.getMisses(), 2);
+		assertEquals(stats.getHits(), 2);
+		assertEquals(stats.getWaits(), 3);
+		assertEquals(stats.getTimeouts(), 1);
+		assertEquals(stats.getHitRatio(), 0.5);
+	}
+
+
+	@Test
+	public void testMinIdle() throws InterruptedException
+	{
+		TestPool pool = new TestPool(10, 0);
+		pool.maintenanceInterval(10);
+		pool.minIdle(4);
+		pool.warmUp();
+
+		assertEquals(pool.size(), 4);
+		assertEquals(pool.mPrepared.get(), 4);
+
+		Integer item = pool.claim();
+
+		awaitCount(pool.mCreated, 5);
+		for (long deadline = System.currentTimeMillis() + 5000; pool.size() < 4;)
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+
+		// each item is prepared once, items prepared by the warm-up are not prepared again when claimed
+		assertEquals(pool.mPrepared.get(), 5);
+
+		// items created in the background are not counted as claims
+		Pool.Statistics stats = pool.getStatistics();
+
+		assertEquals(stats.getCreated(), 5);
+		assertEquals(stats.getMisses(), 0);
+		assertEquals(stats.getHitRatio(), 1.0);
+
+		pool.release(item);
+		pool.close();
+
+		awaitCount(pool.mDestroyed, 5);
+	}
+
+
+	@Test
+	public void testThrowingPrepareAndReset() throws Exception
+	{
+		TestPool pool = new TestPool(10, 0);
+		pool.maxTotal(1);
+
+		pool.mPrepareFailures.set(1);
+
+		try
+		{
+			pool.claim();
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+
+		// the failed item is destroyed in the background and its place in the total is handed to the next claim
+		Integer a = pool.claim(500);
+
+		assertEquals(pool.total(), 1);
+
+		pool.mResetFailures.set(1);
+
+		try
+		{
+			pool.release(a);
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+
+		assertEquals(pool.size(), 0);
+
+		Integer b = pool.claim(500);
+		pool.release(b);
+
+		assertEquals(pool.size(), 1);
+		assertEquals(pool.total(), 1);
+
+		pool.close();
+
+		awaitCount(pool.mDestroyed, 3);
+		assertEquals(pool.mCreated.get(), 3);
+	}
+
+
+	@Test
+	public void testReleaseWhileClosing()
+	{
+		TestPool pool = new TestPool(10, 0)
+		{
+			@Override
+			protected boolean reset(Integer aItem)
+			{
+				close();
+				return true;
+			}
+		};
+
+		pool.release(pool.claim());
+
+		assertEquals(pool.size(), 0);
+		assertEquals(pool.mDestroyed.get(), 1);
+	}
+
+
+	@Test
+	public void testFillWhileClosing() throws InterruptedException
+	{
+		TestPool pool = new TestPool(10, 0)
+		{
+			@Override
+			protected boolean prepare(Integer aItem)
+			{
+				close();
+				return true;
+			}
+		};
+
+		pool.minIdle(1);
+		pool.warmUp();
+
+		awaitCount(pool.mDestroyed, 1);
+		assertEquals(pool.size(), 0);
+	}
+
+
+	private static void awaitCount(AtomicInteger aCounter, int aExpected) throws InterruptedException
+	{
+		for (long deadline = System.currentTimeMillis() + 5000; aCounter.get() < aExpected;)
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+		assertEquals(aCounter.get(), aExpected);
+	}
+
+
+	static class TestPool extends Pool<Integer>
+	{
+		final AtomicInteger mCreated = new AtomicInteger();
+		final AtomicInteger mDestroyed = new AtomicInteger();
+		final AtomicInteger mPrepared = new AtomicInteger();
+		final AtomicInteger mPrepareFailures = new AtomicInteger();
+		final AtomicInteger mResetFailures = new AtomicInteger();
+
+
+		TestPool(int aCapacity, int aExpireTimeSeconds)
+		{
+			super(aCapacity, aExpireTimeSeconds);
+		}
+
+
+		@Override
+		protected Integer create()
+		{
+			return mCreated.incrementAndGet();
+		}
+
+
+		@Override
+		protected boolean prepare(Integer aItem)
+		{
+			mPrepared.incrementAndGet();
+			if (mPrepareFailures.getAndDecrement() > 0)
+			{
+				throw new IllegalStateException("prepare failed");
+			}
+			return true;
+		}
+
+
+		@Override
+		protected boolean reset(Integer aItem)
+		{
+			if (mResetFailures.getAndDecrement() > 0)
+			{
+				throw new IllegalStateException("reset failed");
+			}
+			return true;
+		}
+
+
+		@Override
+		protected void destroy(Integer aItem, String aReason)
+		{
+			mDestroyed.incrementAndGet();
+		}
+	}
+}
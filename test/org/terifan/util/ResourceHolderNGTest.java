@@ -0,0 +1,72 @@
+package org.terifan.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class ResourceHolderNGTest
+{
+	@Test
+	public void testConcurrentInvoke() throws InterruptedException
+	{
+		ResourceHolder<String> holder = new ResourceHolder<>("x");
+		CountDownLatch inside = new CountDownLatch(4);
+
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(() -> holder.invoke(s ->
+			{
+				inside.countDown();
+				assertTrue(inside.await(5, TimeUnit.SECONDS));
+			}));
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		// all four invocations were inside the resource at the same time
+		assertEquals(inside.getCount(), 0);
+	}
+
+
+	@Test
+	public void testCloseDrains() throws InterruptedException
+	{
+		AtomicBoolean closed = new AtomicBoolean();
+		AtomicBoolean closedWhileInUse = new AtomicBoolean();
+		CountDownLatch started = new CountDownLatch(1);
+
+		ResourceHolder<AutoCloseable> holder = new ResourceHolder<>(() -> closed.set(true));
+
+		Thread thread = new Thread(() -> holder.invoke(r ->
+		{
+			started.countDown();
+			Thread.sleep(100);
+			closedWhileInUse.set(closed.get());
+		}));
+		thread.start();
+
+		started.await();
+		holder.close();
+
+		assertTrue(closed.get());
+		assertFalse(closedWhileInUse.get());
+		assertFalse(holder.isAvailable());
+		assertFalse(holder.invoke(r ->
+		{
+			fail();
+		}));
+		assertEquals(holder.invoke(r -> "value", () -> "closed"), "closed");
+
+		holder.open(() -> {});
+		assertTrue(holder.isAvailable());
+
+		thread.join();
+	}
+}
@@ -0,0 +1,119 @@
+package org.terifan.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class SharedResourceFactoryNGTest
+{
+	@Test
+	public void testReferenceCount()
+	{
+		TestFactory factory = new TestFactory();
+
+		SharedResource<StringBuilder> a = factory.get("x");
+		SharedResource<StringBuilder> b = factory.get("x");
+		SharedResource<StringBuilder> c = factory.peek("x");
+
+		assertSame(a.get(), b.get());
+		assertSame(a.get(), c.get());
+		assertEquals(factory.size(), 1);
+		assertNull(factory.peek("y"));
+
+		a.close();
+		a.close();
+		b.close();
+
+		assertTrue(factory.containsPrototype("x"));
+		assertEquals(factory.mDestroyed.get(), 0);
+
+		c.close();
+
+		assertEquals(factory.size(), 0);
+		assertEquals(factory.mDestroyed.get(), 1);
+		assertFalse(factory.containsPrototype("x"));
+
+		factory.get("x");
+		factory.clear();
+
+		assertEquals(factory.mCreated.get(), 2);
+		assertEquals(factory.mDestroyed.get(), 2);
+	}
+
+
+	@Test
+	public void testSingleFlight() throws InterruptedException
+	{
+		TestFactory factory = new TestFactory();
+		CountDownLatch start = new CountDownLatch(1);
+		ArrayList<SharedResource<StringBuilder>> resources = new ArrayList<>();
+
+		Thread[] threads = new Thread[16];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(() ->
+			{
+				try
+				{
+					start.await();
+				}
+				catch (InterruptedException e)
+				{
+				}
+				SharedResource<StringBuilder> resource = factory.get("x");
+				synchronized (resources)
+				{
+					resources.add(resource);
+				}
+			});
+			threads[i].start();
+		}
+
+		start.countDown();
+
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertEquals(factory.mCreated.get(), 1);
+		assertEquals(resources.size(), 16);
+
+		resources.forEach(SharedResource::close);
+
+		assertEquals(factory.mDestroyed.get(), 1);
+		assertEquals(factory.size(), 0);
+	}
+
+
+	static class TestFactory extends SharedResourceFactory<StringBuilder, String>
+	{
+		final AtomicInteger mCreated = new AtomicInteger();
+		final AtomicInteger mDestroyed = new AtomicInteger();
+
+
+		@Override
+		protected StringBuilder create(String aPrototype)
+		{
+			mCreated.incrementAndGet();
+			try
+			{
+				Thread.sleep(20);
+			}
+			catch (InterruptedException e)
+			{
+			}
+			return new StringBuilder(aPrototype);
+		}
+
+
+		@Override
+		protected void destroy(String aPrototype, StringBuilder aObject)
+		{
+			mDestroyed.incrementAndGet();
+		}
+	}
+}
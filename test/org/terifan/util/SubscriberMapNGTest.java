@@ -0,0 +1,79 @@
+package org.terifan.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class SubscriberMapNGTest
+{
+	@Test
+	public void testSubscriptions()
+	{
+		ArrayList<String> events = new ArrayList<>();
+
+		SubscriberMap<String, Integer, String> map = new SubscriberMap<>();
+		map.setOnEntryAdded((k, v) -> events.add("+" + k));
+		map.setOnEntryRemoved((k, v) -> events.add("-" + k));
+
+		map.add("one", k -> 1, "dog");
+		map.add("two", k -> 2, "dog");
+		map.subscribe("one", "cat");
+
+		assertEquals((int)map.get("one"), 1);
+		assertEquals(map.subscribersOf("one").size(), 2);
+		assertEquals(map.subscribedBy("cat"), List.of("one"));
+		assertEquals(map.subscribedBy("dog").size(), 2);
+
+		map.unsubscribe("one", "dog");
+		map.unsubscribe("one", "cat");
+
+		assertFalse(map.containsKey("one"));
+		assertTrue(map.subscribedBy("cat").isEmpty());
+
+		map.clear();
+
+		assertTrue(map.isEmpty());
+		assertTrue(map.subscribedBy("dog").isEmpty());
+		assertEquals(events.toString(), "[+one, +two, -one, -two]");
+	}
+
+
+	@Test
+	public void testConcurrentLeases() throws InterruptedException
+	{
+		AtomicInteger created = new AtomicInteger();
+		AtomicInteger added = new AtomicInteger();
+		AtomicInteger removed = new AtomicInteger();
+
+		SubscriberMap<String, Integer, Thread> map = new SubscriberMap<>(k -> created.incrementAndGet());
+		map.setOnEntryAdded((k, v) -> added.incrementAndGet());
+		map.setOnEntryRemoved((k, v) -> removed.incrementAndGet());
+
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(() ->
+			{
+				for (int j = 0; j < 10_000; j++)
+				{
+					try (SubscriberMap.Lease<String, Integer> lease = map.lease("key" + (j & 3), Thread.currentThread()))
+					{
+						assertNotNull(lease.getValue());
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertTrue(map.isEmpty());
+		assertEquals(created.get(), added.get());
+		assertEquals(added.get(), removed.get());
+	}
+}
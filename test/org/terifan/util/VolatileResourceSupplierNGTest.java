@@ -0,0 +1,104 @@
+package org.terifan.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class VolatileResourceSupplierNGTest
+{
+	@Test
+	public void testReleaseAfterDelay() throws Exception
+	{
+		AtomicInteger created = new AtomicInteger();
+		AtomicInteger released = new AtomicInteger();
+
+		VolatileResourceSupplier<StringBuilder> supplier = new VolatileResourceSupplier<StringBuilder>()
+		{
+			@Override
+			protected StringBuilder create()
+			{
+				created.incrementAndGet();
+				return new StringBuilder();
+			}
+
+
+			@Override
+			protected void release(StringBuilder aInstance)
+			{
+				released.incrementAndGet();
+			}
+		}.setReleaseDelay(50);
+
+		for (int i = 0; i < 10; i++)
+		{
+			try (VolatileResource<StringBuilder> resource = supplier.aquire())
+			{
+				resource.get().append(i);
+			}
+			Thread.sleep(10);
+		}
+
+		assertEquals(created.get(), 1);
+		assertEquals(released.get(), 0);
+
+		try (VolatileResource<StringBuilder> resource = supplier.lock())
+		{
+			Thread.sleep(100);
+			assertEquals(released.get(), 0);
+		}
+
+		for (long deadline = System.currentTimeMillis() + 5000; released.get() == 0;)
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+
+		try (VolatileResource<StringBuilder> resource = supplier.aquire())
+		{
+			assertEquals(resource.get().length(), 0);
+		}
+
+		supplier.close();
+
+		assertEquals(created.get(), 2);
+		assertEquals(released.get(), 2);
+	}
+
+
+	@Test
+	public void testCloseWhileAcquired() throws Exception
+	{
+		AtomicInteger released = new AtomicInteger();
+
+		VolatileResourceSupplier<StringBuilder> supplier = new VolatileResourceSupplier<StringBuilder>()
+		{
+			@Override
+			protected StringBuilder create()
+			{
+				return new StringBuilder();
+			}
+
+
+			@Override
+			protected void release(StringBuilder aInstance)
+			{
+				released.incrementAndGet();
+			}
+		};
+
+		try (VolatileResource<StringBuilder> resource = supplier.aquire())
+		{
+			supplier.close();
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+
+		supplier.close();
+
+		assertEquals(released.get(), 1);
+	}
+}
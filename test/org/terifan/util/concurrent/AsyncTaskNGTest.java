@@ -0,0 +1,101 @@
+package org.terifan.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class AsyncTaskNGTest
+{
+	@Test
+	public void testLaneOrder()
+	{
+		ArrayList<Integer> order = new ArrayList<>();
+
+		for (int i = 0; i < 1000; i++)
+		{
+			int value = i;
+			AsyncTask.execute("ordered", () -> order.add(value));
+		}
+
+		AsyncTask.waitFor();
+
+		assertEquals(order.size(), 1000);
+		for (int i = 0; i < 1000; i++)
+		{
+			assertEquals((int)order.get(i), i);
+		}
+	}
+
+
+	@Test
+	public void testLaneParallelism() throws InterruptedException
+	{
+		AsyncTask.getLane("parallel").setParallelism(4);
+
+		CountDownLatch started = new CountDownLatch(4);
+		CountDownLatch gate = new CountDownLatch(1);
+		AtomicInteger maxRunning = new AtomicInteger();
+		AtomicInteger running = new AtomicInteger();
+
+		for (int i = 0; i < 8; i++)
+		{
+			AsyncTask.execute("parallel", () ->
+			{
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				started.countDown();
+				try
+				{
+					gate.await();
+				}
+				catch (InterruptedException e)
+				{
+				}
+				running.decrementAndGet();
+			});
+		}
+
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		// a blocked lane does not block other lanes
+		assertEquals(new Task(7).executeOn("other", null).get(5, TimeUnit.SECONDS), 7);
+
+		gate.countDown();
+		AsyncTask.waitFor();
+
+		assertEquals(maxRunning.get(), 4);
+		assertEquals(AsyncTask.getLane("parallel").size(), 0);
+	}
+
+
+	@Test
+	public void testGet()
+	{
+		Task task = new Task(42);
+
+		assertEquals(task.execute().get(), 42);
+		assertEquals(task.peek(), (Integer)42);
+	}
+
+
+	static class Task extends AsyncTask<Void, Void, Integer>
+	{
+		final int mValue;
+
+
+		Task(int aValue)
+		{
+			mValue = aValue;
+		}
+
+
+		@Override
+		protected Integer doInBackground(Void aParam) throws Throwable
+		{
+			return mValue;
+		}
+	}
+}
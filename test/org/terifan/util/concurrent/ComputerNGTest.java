@@ -0,0 +1,175 @@
+package org.terifan.util.concurrent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class ComputerNGTest
+{
+	@Test
+	public void testGet()
+	{
+		Computer<String> a = new Computer<>(() -> "a");
+		Computer<String> b = new Computer<>(() -> "b");
+
+		assertEquals(a.get() + b.get(), "ab");
+		assertEquals(a.next(), "a");
+		assertEquals(a.finish(), "a");
+
+		try
+		{
+			a.get();
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testGetTimeout()
+	{
+		Computer<String> computer = new Computer<>(() ->
+		{
+			Thread.sleep(10_000);
+			return "late";
+		});
+
+		try
+		{
+			computer.get(20);
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+
+		assertTrue(computer.cancel());
+	}
+
+
+	@Test
+	public void testFailureCancelsGroup() throws InterruptedException
+	{
+		AtomicBoolean interrupted = new AtomicBoolean();
+		CountDownLatch started = new CountDownLatch(1);
+
+		Computer<String> slow;
+
+		try (Computer.Group group = new Computer.Group(true))
+		{
+			slow = new Computer<>(group, () ->
+			{
+				try
+				{
+					started.countDown();
+					Thread.sleep(10_000);
+				}
+				catch (InterruptedException e)
+				{
+					interrupted.set(true);
+					throw e;
+				}
+				return "slow";
+			});
+
+			started.await();
+
+			new Computer<String>(group, () ->
+			{
+				throw new IllegalArgumentException();
+			});
+
+			try
+			{
+				group.join(5000);
+				fail();
+			}
+			catch (IllegalStateException e)
+			{
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+		}
+
+		assertTrue(interrupted.get());
+
+		try
+		{
+			slow.get();
+			fail();
+		}
+		catch (CancellationException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testCloseCancels() throws InterruptedException
+	{
+		AtomicBoolean stopped = new AtomicBoolean();
+		CountDownLatch started = new CountDownLatch(1);
+
+		try (Computer.Group group = new Computer.Group())
+		{
+			new Computer<>(group, () ->
+			{
+				try
+				{
+					started.countDown();
+					Thread.sleep(10_000);
+					return "slow";
+				}
+				finally
+				{
+					stopped.set(true);
+				}
+			});
+
+			started.await();
+		}
+
+		assertTrue(stopped.get());
+	}
+
+
+	@Test
+	public void testRejectedComputerLeavesGroup()
+	{
+		Computer.Group group = new Computer.Group(aRunnable ->
+		{
+			throw new RejectedExecutionException();
+		});
+
+		try
+		{
+			new Computer<>(group, () -> "a");
+			fail();
+		}
+		catch (RejectedExecutionException e)
+		{
+			// expected
+		}
+
+		try
+		{
+			group.join(5000);
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		group.close();
+	}
+}
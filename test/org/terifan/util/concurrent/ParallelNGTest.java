@@ -0,0 +1,144 @@
+package org.terifan.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class ParallelNGTest
+{
+	@Test
+	public void testRange()
+	{
+		AtomicIntegerArray visits = new AtomicIntegerArray(10_001);
+
+		Parallel.rangeClosed(0, 10_000).grain(7).forEach(i -> visits.incrementAndGet(i));
+
+		for (int i = 0; i < visits.length(); i++)
+		{
+			assertEquals(visits.get(i), 1);
+		}
+	}
+
+
+	@Test
+	public void testLongRangeAndStep()
+	{
+		AtomicLong sum = new AtomicLong();
+
+		Parallel.range(0L, 1_000_000L).forEach(i -> sum.addAndGet(i));
+
+		assertEquals(sum.get(), 999_999L * 1_000_000L / 2);
+
+		AtomicIntegerArray ends = new AtomicIntegerArray(3);
+
+		Parallel.range(0, 10, 4).forEach((i, j) -> ends.set(i / 4, j));
+
+		assertEquals(ends.toString(), "[3, 7, 9]");
+	}
+
+
+	@Test
+	public void testRangeBounds()
+	{
+		AtomicLong count = new AtomicLong();
+
+		Parallel.rangeClosed(Long.MAX_VALUE - 9, Long.MAX_VALUE).grain(3).forEach(i -> count.incrementAndGet());
+
+		assertEquals(count.get(), 10);
+		assertEquals(Parallel.rangeClosed(Long.MAX_VALUE - 9, Long.MAX_VALUE).sum(i -> Long.MAX_VALUE - i), 45);
+		assertEquals(Parallel.rangeClosed(Long.MAX_VALUE - 9, Long.MAX_VALUE).max(i -> i).getAsLong(), Long.MAX_VALUE);
+		assertEquals(Parallel.range(Long.MIN_VALUE, Long.MIN_VALUE + 10).min(i -> i).getAsLong(), Long.MIN_VALUE);
+		assertEquals(Parallel.rangeClosed(Integer.MAX_VALUE - 9, Integer.MAX_VALUE).sum(i -> Integer.MAX_VALUE - i), 45);
+		assertEquals(Parallel.rangeClosed(Integer.MIN_VALUE, Integer.MIN_VALUE + 9).mapToObj(i -> i).collect(Collectors.toList()).size(), 10);
+
+		try
+		{
+			Parallel.rangeClosed(Long.MIN_VALUE, Long.MAX_VALUE);
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testExceptionPropagates()
+	{
+		try
+		{
+			Parallel.range(0, 1000).forEach(i ->
+			{
+				if (i == 500)
+				{
+					throw new IllegalStateException("fail");
+				}
+			});
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testReductions()
+	{
+		assertEquals(Parallel.range(0, 100_000).sum(i -> i), 99_999L * 100_000 / 2);
+		assertEquals(Parallel.rangeClosed(-50, 50).min(i -> i * i).getAsLong(), 0);
+		assertEquals(Parallel.rangeClosed(-50, 50).max(i -> i * i).getAsLong(), 2500);
+		assertFalse(Parallel.range(5, 5).min(i -> i).isPresent());
+		assertEquals(Parallel.range(0L, 10L).sum(i -> i * 2), 90);
+
+		int[] histogram = Parallel.range(0, 10_000).grain(100).reduce(() -> new int[10], (h, i) -> h[i % 10]++, (a, b) ->
+		{
+			for (int i = 0; i < a.length; i++)
+			{
+				a[i] += b[i];
+			}
+			return a;
+		});
+
+		for (int count : histogram)
+		{
+			assertEquals(count, 1000);
+		}
+	}
+
+
+	@Test
+	public void testMapToObj()
+	{
+		List<Integer> squares = Parallel.range(0, 10_000).mapToObj(i -> i * i).collect(Collectors.toList());
+
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++)
+		{
+			expected.add(i * i);
+		}
+
+		assertEquals(squares, expected);
+		assertEquals(Parallel.range(0, 10, 4).mapToObj((i, j) -> i + "-" + j).collect(Collectors.joining(",")), "0-3,4-7,8-9");
+		assertEquals(Parallel.range(1, 6).mapToObj(i -> i).reduce(1, (a, b) -> a * b), (Integer)120);
+	}
+
+
+	@Test
+	public void testDeterministicSum()
+	{
+		double expected = Parallel.range(0, 1_000_000).sumDouble(i -> 1.0 / (i + 1));
+
+		for (int i = 0; i < 10; i++)
+		{
+			assertEquals(Parallel.range(0, 1_000_000).sumDouble(j -> 1.0 / (j + 1)), expected);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package org.terifan.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class PromiseNGTest
+{
+	@Test
+	public void testAsynchronous() throws InterruptedException
+	{
+		CountDownLatch gate = new CountDownLatch(1);
+		AtomicReference<Integer> value = new AtomicReference<>();
+
+		Promise<Integer> promise = new Promise<>(() ->
+		{
+			gate.await();
+			return 7;
+		});
+
+		Promise<String> mapped = promise.then(value::set).map(i -> "#" + i);
+
+		assertFalse(promise.isDone());
+		assertNull(value.get());
+
+		gate.countDown();
+
+		assertEquals(mapped.get(), "#7");
+		assertEquals((int)value.get(), 7);
+	}
+
+
+	@Test
+	public void testFlatMapAndAll()
+	{
+		List<Promise<Integer>> promises = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+		{
+			int v = i;
+			promises.add(new Promise<>(() -> v).flatMap(x -> new Promise<>(() -> x * 2)));
+		}
+
+		List<Integer> values = Promise.all(promises).get();
+
+		assertEquals(values.size(), 100);
+		for (int i = 0; i < 100; i++)
+		{
+			assertEquals((int)values.get(i), 2 * i);
+		}
+	}
+
+
+	@Test
+	public void testAny()
+	{
+		Promise<String> slow = new Promise<>();
+		Promise<String> failed = new Promise<String>().reject(new IllegalStateException());
+		Promise<String> fast = new Promise<>(() -> "fast");
+
+		assertEquals(Promise.any(slow, failed, fast).get(), "fast");
+
+		try
+		{
+			Promise.any(failed, new Promise<String>().reject(new IllegalArgumentException())).get();
+			fail();
+		}
+		catch (CompletionException e)
+		{
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+
+	@Test
+	public void testErrorAndTimeout()
+	{
+		AtomicInteger errors = new AtomicInteger();
+
+		Promise<Integer> promise = new Promise<Integer>(() ->
+		{
+			throw new IllegalStateException();
+		})
+			.map(i -> i + 1)
+			.onError(e -> errors.incrementAndGet());
+
+		try
+		{
+			promise.get();
+			fail();
+		}
+		catch (CompletionException e)
+		{
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		assertEquals(errors.get(), 1);
+
+		Promise<Integer> never = new Promise<Integer>().timeout(20);
+
+		try
+		{
+			never.get(5000);
+			fail();
+		}
+		catch (CompletionException e)
+		{
+			assertTrue(e.getCause() instanceof TimeoutException);
+			assertTrue(never.isRejected());
+		}
+
+		never.complete(1);
+
+		assertNull(never.getNow());
+	}
+}
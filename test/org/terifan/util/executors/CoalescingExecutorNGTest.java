@@ -0,0 +1,177 @@
+package org.terifan.util.executors;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class CoalescingExecutorNGTest
+{
+	@Test
+	public void testLatestValuePerKey() throws InterruptedException
+	{
+		int keys = 8;
+		int values = 10_000;
+
+		ConcurrentHashMap<Integer, Integer> latest = new ConcurrentHashMap<>();
+		ConcurrentHashMap<Integer, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+		AtomicBoolean overlap = new AtomicBoolean();
+
+		CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(3, (key, value) ->
+		{
+			AtomicInteger counter = inFlight.computeIfAbsent(key, k -> new AtomicInteger());
+
+			if (counter.incrementAndGet() > 1)
+			{
+				overlap.set(true);
+			}
+
+			Integer previous = latest.put(key, value);
+			if (previous != null && previous >= value)
+			{
+				overlap.set(true);
+			}
+
+			counter.decrementAndGet();
+		});
+
+		Thread[] producers = new Thread[keys];
+		for (int i = 0; i < keys; i++)
+		{
+			int key = i;
+			producers[i] = new Thread(() ->
+			{
+				for (int j = 1; j <= values; j++)
+				{
+					executor.submit(key, j);
+				}
+			});
+			producers[i].start();
+		}
+		for (Thread producer : producers)
+		{
+			producer.join();
+		}
+
+		for (long deadline = System.currentTimeMillis() + 5000; latest.size() < keys || latest.values().stream().anyMatch(v -> v != values);)
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+
+		executor.shutdown();
+
+		assertFalse(overlap.get());
+	}
+
+
+	@Test
+	public void testNonBlockingDiscardingTaskExecutor() throws InterruptedException
+	{
+		AtomicInteger last = new AtomicInteger();
+		AtomicInteger calls = new AtomicInteger();
+
+		NonBlockingDiscardingTaskExecutor<Integer> executor = new NonBlockingDiscardingTaskExecutor<>(value ->
+		{
+			calls.incrementAndGet();
+			last.set(value);
+		});
+
+		for (int i = 1; i <= 10_000; i++)
+		{
+			executor.submit(i);
+		}
+
+		for (long deadline = System.currentTimeMillis() + 5000; last.get() != 10_000;)
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+
+		assertTrue(calls.get() <= 10_000);
+	}
+
+
+	@Test
+	public void testRemove() throws InterruptedException
+	{
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		AtomicInteger sum = new AtomicInteger();
+
+		CoalescingExecutor<String, Integer> executor = new CoalescingExecutor<>(1, (key, value) ->
+		{
+			running.countDown();
+			try
+			{
+				gate.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			sum.addAndGet(value);
+		});
+
+		executor.submit("a", 1);
+		running.await();
+
+		assertFalse(executor.remove("a"));
+
+		gate.countDown();
+
+		for (long deadline = System.currentTimeMillis() + 5000; !executor.remove("a");)
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+
+		assertEquals(sum.get(), 1);
+		assertFalse(executor.remove("a"));
+
+		executor.submit("a", 10);
+
+		for (long deadline = System.currentTimeMillis() + 5000; sum.get() < 11;)
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+
+		executor.shutdown();
+	}
+
+
+	@Test
+	public void testRejectedSlotIsUnscheduled()
+	{
+		AtomicInteger rejections = new AtomicInteger(1);
+		AtomicInteger consumed = new AtomicInteger();
+
+		CoalescingExecutor.Slot<Integer> slot = new CoalescingExecutor.Slot<>(consumed::addAndGet, aRunnable ->
+		{
+			if (rejections.getAndDecrement() > 0)
+			{
+				throw new RejectedExecutionException();
+			}
+			aRunnable.run();
+		});
+
+		try
+		{
+			slot.submit(1);
+			fail();
+		}
+		catch (RejectedExecutionException e)
+		{
+			// expected
+		}
+
+		slot.submit(10);
+
+		assertEquals(consumed.get(), 10);
+	}
+}
@@ -0,0 +1,120 @@
+package org.terifan.util.executors;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.terifan.util.DelayedExecutor;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class DebouncingExecutorNGTest
+{
+	@Test
+	public void testTrailing() throws InterruptedException
+	{
+		AtomicInteger calls = new AtomicInteger();
+		AtomicInteger last = new AtomicInteger();
+
+		DebouncingExecutor<String> executor = new DebouncingExecutor<>(50);
+
+		for (int i = 1; i <= 10; i++)
+		{
+			int value = i;
+			executor.submit("a", () ->
+			{
+				calls.incrementAndGet();
+				last.set(value);
+			});
+			Thread.sleep(5);
+		}
+
+		assertTrue(executor.isPending("a"));
+
+		awaitCount(calls, 1);
+		Thread.sleep(100);
+
+		assertEquals(calls.get(), 1);
+		assertEquals(last.get(), 10);
+		assertFalse(executor.isPending("a"));
+	}
+
+
+	@Test
+	public void testLeadingAndMaxWait() throws InterruptedException
+	{
+		AtomicInteger calls = new AtomicInteger();
+
+		DebouncingExecutor<String> executor = new DebouncingExecutor<String>(100).setLeading(true).setMaxWait(150);
+
+		long time = System.currentTimeMillis();
+
+		while (System.currentTimeMillis() - time < 400)
+		{
+			executor.submit("a", () -> calls.incrementAndGet());
+			Thread.sleep(10);
+		}
+
+		// leading edge plus at least two runs forced by max wait
+		assertTrue(calls.get() >= 3, "" + calls.get());
+
+		int before = calls.get();
+		awaitCount(calls, before + 1);
+	}
+
+
+	@Test
+	public void testThrottle() throws InterruptedException
+	{
+		AtomicInteger calls = new AtomicInteger();
+
+		DebouncingExecutor<String> executor = new DebouncingExecutor<String>(0).setThrottle(3, 200);
+
+		for (int i = 0; i < 10; i++)
+		{
+			executor.submit("a", () -> calls.incrementAndGet());
+			executor.submit("b", () -> calls.incrementAndGet());
+		}
+
+		Thread.sleep(50);
+
+		assertEquals(calls.get(), 6);
+		assertTrue(executor.isPending("a"));
+
+		awaitCount(calls, 8);
+	}
+
+
+	@Test
+	public void testDelayedExecutor() throws InterruptedException
+	{
+		AtomicInteger calls = new AtomicInteger();
+
+		DelayedExecutor exe = new DelayedExecutor();
+
+		assertFalse(exe.schedule(() -> calls.addAndGet(1), 10_000));
+		assertTrue(exe.schedule(() -> calls.addAndGet(10), 20));
+		assertTrue(exe.isPending());
+
+		awaitCount(calls, 10);
+
+		assertFalse(exe.isPending());
+
+		exe.schedule(() -> calls.addAndGet(100), 10_000);
+		assertTrue(exe.runImmediately());
+		assertEquals(calls.get(), 110);
+
+		exe.schedule(() -> calls.addAndGet(1000), 50);
+		assertTrue(exe.cancel());
+		Thread.sleep(100);
+		assertEquals(calls.get(), 110);
+	}
+
+
+	private static void awaitCount(AtomicInteger aCounter, int aExpected) throws InterruptedException
+	{
+		for (long deadline = System.currentTimeMillis() + 5000; aCounter.get() < aExpected;)
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package org.terifan.util.executors;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.terifan.util.executors.FixedThreadExecutor.OverflowPolicy;
+import org.terifan.util.executors.FixedThreadExecutor.RunnableTask;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class FixedThreadExecutorNGTest
+{
+	@Test
+	public void testSubmitAll()
+	{
+		AtomicInteger count = new AtomicInteger();
+
+		ArrayList<RunnableTask> tasks = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+		{
+			tasks.add(() -> count.incrementAndGet());
+		}
+
+		try (FixedThreadExecutor executor = new FixedThreadExecutor(4).setQueueLimit(10))
+		{
+			executor.submitAll(tasks);
+		}
+
+		assertEquals(count.get(), 1000);
+	}
+
+
+	@Test
+	public void testCall()
+	{
+		AtomicReference<String> result = new AtomicReference<>();
+
+		try (FixedThreadExecutor executor = new FixedThreadExecutor(1))
+		{
+			executor.call(result, () -> "value");
+		}
+
+		assertEquals(result.get(), "value");
+	}
+
+
+	@Test
+	public void testCallCompletionFuture() throws Exception
+	{
+		AtomicReference<Object> completed = new AtomicReference<>();
+
+		try (FixedThreadExecutor<Future<?>> executor = new FixedThreadExecutor<Future<?>>(1).setOnCompletion(aFuture -> completed.set(aFuture)))
+		{
+			executor.call(null, () -> "value");
+		}
+
+		assertEquals(((Future<?>)completed.get()).get(), "value");
+	}
+
+
+	@Test
+	public void testOverflowPolicies() throws InterruptedException
+	{
+		CountDownLatch gate = new CountDownLatch(1);
+		AtomicInteger count = new AtomicInteger();
+		Thread caller = Thread.currentThread();
+		AtomicReference<Thread> runner = new AtomicReference<>();
+
+		try (FixedThreadExecutor executor = new FixedThreadExecutor(1).setQueueLimit(1).setOverflowPolicy(OverflowPolicy.REJECT))
+		{
+			CountDownLatch started = new CountDownLatch(1);
+
+			executor.submit(() ->
+			{
+				started.countDown();
+				gate.await();
+			});
+
+			started.await();
+
+			executor.submit(() -> count.incrementAndGet());
+
+			try
+			{
+				executor.submit(() -> count.incrementAndGet());
+				fail();
+			}
+			catch (RejectedExecutionException e)
+			{
+				// expected
+			}
+
+			executor.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+			executor.submit(() -> runner.set(Thread.currentThread()));
+			assertSame(runner.get(), caller);
+
+			executor.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+			executor.submit(() -> count.addAndGet(10));
+
+			gate.countDown();
+		}
+
+		assertEquals(count.get(), 10);
+	}
+
+
+	@Test
+	public void testCallerRunsCompletion() throws InterruptedException
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		Thread caller = Thread.currentThread();
+		AtomicReference<Thread> completedOn = new AtomicReference<>();
+		AtomicInteger completions = new AtomicInteger();
+
+		try (FixedThreadExecutor<Future<?>> executor = new FixedThreadExecutor<Future<?>>(1).setQueueLimit(1).setOverflowPolicy(OverflowPolicy.CALLER_RUNS))
+		{
+			executor.setOnCompletion(aFuture ->
+			{
+				completions.incrementAndGet();
+				if (Thread.currentThread() == caller)
+				{
+					completedOn.set(caller);
+				}
+			});
+
+			executor.submit(() ->
+			{
+				started.countDown();
+				gate.await();
+			});
+
+			started.await();
+
+			executor.submit(() -> {});
+			executor.submit(() -> {});
+
+			assertSame(completedOn.get(), caller);
+
+			gate.countDown();
+		}
+
+		assertEquals(completions.get(), 3);
+	}
+
+
+	@Test
+	public void testVirtualThreads() throws InterruptedException
+	{
+		CountDownLatch gate = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		AtomicInteger platform = new AtomicInteger();
+		AtomicInteger count = new AtomicInteger();
+
+		try (FixedThreadExecutor<Void> executor = new FixedThreadExecutor<Void>(1).setVirtualThreads(3))
+		{
+			assertTrue(executor.isVirtualThreads());
+
+			for (int i = 0; i < 100; i++)
+			{
+				executor.submit(() ->
+				{
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					if (!Thread.currentThread().isVirtual())
+					{
+						platform.incrementAndGet();
+					}
+					gate.await();
+					running.decrementAndGet();
+					count.incrementAndGet();
+				});
+			}
+
+			try
+			{
+				executor.setVirtualThreads(0);
+				fail();
+			}
+			catch (IllegalStateException e)
+			{
+				// expected
+			}
+
+			while (running.get() < 3)
+			{
+				Thread.sleep(1);
+			}
+
+			gate.countDown();
+		}
+
+		assertEquals(count.get(), 100);
+		assertEquals(maxRunning.get(), 3);
+		assertEquals(platform.get(), 0);
+	}
+}
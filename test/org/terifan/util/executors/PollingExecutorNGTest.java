@@ -1,9 +1,15 @@
 package org.terifan.util.executors;
 
 import org.terifan.util.ListSupplier;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import org.terifan.util.executors.PollingExecutor.Handler;
 import org.testng.annotations.Test;
@@ -84,4 +90,197 @@ public class PollingExecutorNGTest
 
 		System.out.println(sb);
 	}
+
+
+	@Test
+	public void testExecuteIteratorChunked()
+	{
+		PollingExecutor executor = new PollingExecutor(8);
+
+		ArrayList<Integer> elements = new ArrayList<>();
+		for (int i = 0; i < 100000; i++)
+		{
+			elements.add(i);
+		}
+
+		AtomicLong sum = new AtomicLong();
+
+		executor.execute(elements.iterator(), i -> sum.addAndGet(i));
+
+		assertEquals(sum.get(), 99999L * 100000 / 2);
+
+		sum.set(0);
+
+		executor.execute(elements.iterator(), 100, i -> sum.addAndGet(i));
+
+		assertEquals(sum.get(), 99999L * 100000 / 2);
+	}
+
+
+	@Test
+	public void testExecuteSpliterator()
+	{
+		PollingExecutor executor = new PollingExecutor(8);
+
+		ArrayList<Integer> elements = new ArrayList<>();
+		for (int i = 0; i < 100000; i++)
+		{
+			elements.add(i);
+		}
+
+		AtomicLong sum = new AtomicLong();
+
+		executor.execute(elements.spliterator(), i -> sum.addAndGet(i));
+
+		assertEquals(sum.get(), 99999L * 100000 / 2);
+	}
+
+
+	@Test
+	public void testExecutePrimitiveRange()
+	{
+		PollingExecutor executor = new PollingExecutor(8);
+
+		int[] counts = new int[100003];
+
+		executor.executeIntRange(3, counts.length, i -> counts[i]++);
+
+		for (int i = 0; i < counts.length; i++)
+		{
+			assertEquals(counts[i], i < 3 ? 0 : 1);
+		}
+
+		AtomicLong sum = new AtomicLong();
+
+		executor.executeLongRange(0, 1000000, i -> sum.addAndGet(i));
+
+		assertEquals(sum.get(), 999999L * 1000000 / 2);
+
+		executor.executeLongRange(0, 3, i -> sum.addAndGet(-i));
+
+		assertEquals(sum.get(), 999999L * 1000000 / 2 - 3);
+	}
+
+
+	@Test
+	public void testExecuteLongRangeBounds()
+	{
+		PollingExecutor executor = new PollingExecutor(8);
+
+		AtomicLong count = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+
+		executor.executeLongRange(Long.MAX_VALUE - 10, Long.MAX_VALUE, i ->
+		{
+			count.incrementAndGet();
+			sum.addAndGet(Long.MAX_VALUE - i);
+		});
+
+		assertEquals(count.get(), 10);
+		assertEquals(sum.get(), 55);
+
+		count.set(0);
+		sum.set(0);
+
+		executor.executeLongRange(Long.MIN_VALUE, Long.MIN_VALUE + 10, i ->
+		{
+			count.incrementAndGet();
+			sum.addAndGet(i - Long.MIN_VALUE);
+		});
+
+		assertEquals(count.get(), 10);
+		assertEquals(sum.get(), 45);
+
+		AtomicLong lowest = new AtomicLong(Long.MAX_VALUE);
+
+		executor.executeLongRange(Long.MIN_VALUE, Long.MAX_VALUE, i ->
+		{
+			lowest.accumulateAndGet(i, Math::min);
+			if (i == Long.MIN_VALUE)
+			{
+				executor.cancel();
+			}
+		});
+
+		assertEquals(lowest.get(), Long.MIN_VALUE);
+	}
+
+
+	@Test
+	public void testConcurrentExecute() throws InterruptedException
+	{
+		PollingExecutor executor = new PollingExecutor(4);
+
+		AtomicLong sum = new AtomicLong();
+		Thread[] callers = new Thread[8];
+
+		for (int i = 0; i < callers.length; i++)
+		{
+			callers[i] = new Thread(() ->
+			{
+				for (int j = 0; j < 100; j++)
+				{
+					executor.executeIntRange(0, 100, k -> sum.addAndGet(k));
+				}
+			});
+			callers[i].start();
+		}
+
+		for (Thread caller : callers)
+		{
+			caller.join();
+		}
+
+		assertEquals(sum.get(), 8 * 100 * 4950L);
+
+		sum.set(0);
+
+		executor.executeIntRange(0, 10, i -> executor.executeIntRange(0, 10, j -> sum.incrementAndGet()));
+
+		assertEquals(sum.get(), 100L);
+
+		executor.shutdown();
+	}
+
+
+	@Test
+	public void testVirtualThreads()
+	{
+		PollingExecutor executor = new PollingExecutor(2).setVirtualThreads(4);
+
+		assertTrue(executor.isVirtualThreads());
+
+		// every handler waits for the others so each of the four parts runs on its own thread, the caller runs one of them
+		CountDownLatch latch = new CountDownLatch(4);
+		Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+		executor.executeRange(0, 4, i ->
+		{
+			threads.add(Thread.currentThread());
+			latch.countDown();
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		});
+
+		assertEquals(threads.size(), 4);
+		assertEquals(threads.stream().filter(Thread::isVirtual).count(), 3L);
+
+		executor.setVirtualThreads(0);
+
+		assertFalse(executor.isVirtualThreads());
+
+		threads.clear();
+		AtomicLong sum = new AtomicLong();
+
+		executor.executeRange(0, 1000, i ->
+		{
+			threads.add(Thread.currentThread());
+			sum.addAndGet(i);
+		});
+
+		assertEquals(sum.get(), 999L * 1000 / 2);
+		assertTrue(threads.size() <= 2);
+		assertEquals(threads.stream().filter(Thread::isVirtual).count(), 0L);
+
+		executor.shutdown();
+	}
 }
@@ -0,0 +1,263 @@
+package org.terifan.util.executors;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class PrioritizedExecutorNGTest
+{
+	@Test
+	public void testPriorityOrder() throws InterruptedException
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(6);
+		ArrayList<Integer> order = new ArrayList<>();
+
+		try (PrioritizedExecutor<Task> executor = new PrioritizedExecutor<>(1, e -> (double)e.mValue))
+		{
+			executor.submit(new Task(-1, order, done).blockOn(started, gate));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+
+			for (int i : new int[]{5, 3, 9, 1, 7, 3})
+			{
+				executor.submit(new Task(i, order, done));
+			}
+
+			assertEquals(executor.size(), 5);
+
+			gate.countDown();
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		synchronized (order)
+		{
+			assertEquals(order.toString(), "[-1, 1, 3, 5, 7, 9]");
+		}
+	}
+
+
+	@Test
+	public void testReprioritize() throws InterruptedException
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(11);
+		ArrayList<Integer> order = new ArrayList<>();
+		int[] center = {0};
+
+		try (PrioritizedExecutor<Task> executor = new PrioritizedExecutor<>(1, e -> (double)(e.mValue - center[0])))
+		{
+			executor.submit(new Task(-100, order, done).blockOn(started, gate));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+
+			for (int i = 0; i < 10; i++)
+			{
+				executor.submit(new Task(i, order, done));
+			}
+
+			center[0] = 9;
+			executor.reprioritize();
+
+			gate.countDown();
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		synchronized (order)
+		{
+			assertEquals(order.toString(), "[-100, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0]");
+		}
+	}
+
+
+	@Test
+	public void testStaleEpochRescoredLazily() throws InterruptedException
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch rescoring = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(11);
+		ArrayList<Integer> order = new ArrayList<>();
+		boolean[] changed = {false};
+		Thread testThread = Thread.currentThread();
+		Thread[] workerThread = new Thread[1];
+
+		// the new scores are never lower than the old, so lazily rescoring the head of the queue yields the exact order
+		PrioritizedExecutor<Task> executor = new PrioritizedExecutor<>(1, e ->
+		{
+			Thread thread = Thread.currentThread();
+			if (thread != testThread && thread != workerThread[0])
+			{
+				try
+				{
+					rescoring.await();
+				}
+				catch (InterruptedException ex)
+				{
+				}
+			}
+			return changed[0] ? 10.0 * (9 - e.mValue) + e.mValue : e.mValue;
+		});
+
+		CompletableFuture<Void> future;
+
+		try (executor)
+		{
+			Task blocker = new Task(-1, order, done).blockOn(started, gate);
+			executor.submit(blocker);
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			workerThread[0] = blocker.mRunner;
+
+			for (int i = 0; i < 10; i++)
+			{
+				executor.submit(new Task(i, order, done));
+			}
+
+			changed[0] = true;
+			future = executor.priorityChanged();
+
+			gate.countDown();
+
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertFalse(future.isDone());
+		}
+
+		rescoring.countDown();
+		future.join();
+
+		synchronized (order)
+		{
+			assertEquals(order.toString(), "[-1, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0]");
+		}
+	}
+
+
+	@Test
+	public void testThrowingComparatorAfterPriorityChanged() throws InterruptedException
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(11);
+		ArrayList<Integer> order = new ArrayList<>();
+		boolean[] failing = {false};
+
+		CompletableFuture<Void> future;
+
+		try (PrioritizedExecutor<Task> executor = new PrioritizedExecutor<>(1, e ->
+		{
+			if (failing[0])
+			{
+				throw new IllegalStateException("comparator failure " + e.mValue);
+			}
+			return (double)e.mValue;
+		}))
+		{
+			executor.submit(new Task(-1, order, done).blockOn(started, gate));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+
+			for (int i = 0; i < 10; i++)
+			{
+				executor.submit(new Task(i, order, done));
+			}
+
+			failing[0] = true;
+			future = executor.priorityChanged();
+
+			gate.countDown();
+		}
+
+		// the worker survives and runs every task in the order of the last successful scores
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		try
+		{
+			future.join();
+			fail();
+		}
+		catch (CompletionException e)
+		{
+			// expected
+		}
+
+		synchronized (order)
+		{
+			assertEquals(order.toString(), "[-1, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9]");
+		}
+	}
+
+
+	static class Task implements Runnable
+	{
+		final int mValue;
+		final ArrayList<Integer> mOrder;
+		final CountDownLatch mDone;
+		CountDownLatch mStarted;
+		CountDownLatch mGate;
+		volatile Thread mRunner;
+
+		Task(int aValue, ArrayList<Integer> aOrder, CountDownLatch aDone)
+		{
+			mValue = aValue;
+			mOrder = aOrder;
+			mDone = aDone;
+		}
+
+
+		/**
+		 * Signal the started latch when run and then wait for the gate to open.
+		 */
+		Task blockOn(CountDownLatch aStarted, CountDownLatch aGate)
+		{
+			mStarted = aStarted;
+			mGate = aGate;
+			return this;
+		}
+
+
+		@Override
+		public void run()
+		{
+			mRunner = Thread.currentThread();
+
+			try
+			{
+				if (mGate != null)
+				{
+					mStarted.countDown();
+					mGate.await();
+				}
+			}
+			catch (InterruptedException e)
+			{
+			}
+
+			synchronized (mOrder)
+			{
+				mOrder.add(mValue);
+			}
+
+			mDone.countDown();
+		}
+
+
+		@Override
+		public boolean equals(Object aOther)
+		{
+			return aOther instanceof Task && ((Task)aOther).mValue == mValue;
+		}
+
+
+		@Override
+		public int hashCode()
+		{
+			return mValue;
+		}
+	}
+}
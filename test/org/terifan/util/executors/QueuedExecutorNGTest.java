@@ -1,6 +1,7 @@
 package org.terifan.util.executors;
 
 import org.terifan.util.executors.QueuedExecutor;
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import static org.testng.Assert.*;
 import org.testng.annotations.Test;
@@ -15,7 +16,7 @@ public class QueuedExecutorNGTest
 		{
 			AtomicInteger count = new AtomicInteger();
 
-			QueuedExecutor<String> executor = new QueuedExecutor<>()
+			QueuedExecutor<String> executor = new QueuedExecutor<String>()
 				.setInitializer(() -> System.out.println("init"))
 				.setDestroyer(() -> System.out.println("dest"))
 				.setHandler(aTask -> count.incrementAndGet());
@@ -34,4 +35,132 @@ public class QueuedExecutorNGTest
 			e.printStackTrace(System.out);
 		}
 	}
+
+
+	@Test
+	public void testOrder()
+	{
+		ArrayList<Integer> order = new ArrayList<>();
+		AtomicInteger inits = new AtomicInteger();
+		AtomicInteger destroys = new AtomicInteger();
+
+		QueuedExecutor<Integer> executor = new QueuedExecutor<Integer>(10)
+			.setInitializer(() -> inits.incrementAndGet())
+			.setDestroyer(() -> destroys.incrementAndGet())
+			.setHandler(aTask -> order.add(aTask));
+
+		for (int i = 0; i < 100000; i++)
+		{
+			executor.schedule(i);
+		}
+
+		executor.shutdown();
+
+		assertEquals(order.size(), 100000);
+		for (int i = 0; i < order.size(); i++)
+		{
+			assertEquals((int)order.get(i), i);
+		}
+		assertEquals(inits.get(), destroys.get());
+	}
+
+
+	@Test
+	public void testBatchHandler()
+	{
+		ArrayList<Integer> order = new ArrayList<>();
+		AtomicInteger batches = new AtomicInteger();
+		AtomicInteger largest = new AtomicInteger();
+
+		QueuedExecutor<Integer> executor = new QueuedExecutor<Integer>(10).setBatchHandler(aBatch ->
+		{
+			batches.incrementAndGet();
+			largest.accumulateAndGet(aBatch.size(), Math::max);
+			order.addAll(aBatch);
+		}, 100, 50);
+
+		for (int i = 0; i < 1000; i++)
+		{
+			executor.schedule(i);
+		}
+
+		executor.shutdown();
+
+		assertEquals(order.size(), 1000);
+		for (int i = 0; i < order.size(); i++)
+		{
+			assertEquals((int)order.get(i), i);
+		}
+		assertTrue(largest.get() <= 100);
+		assertTrue(batches.get() >= 10);
+	}
+
+
+	@Test
+	public void testIdleWakeUp() throws InterruptedException
+	{
+		AtomicInteger count = new AtomicInteger();
+
+		QueuedExecutor<Integer> executor = new QueuedExecutor<Integer>(5000).setHandler(aTask -> count.incrementAndGet());
+
+		executor.schedule(1);
+
+		while (count.get() < 1)
+		{
+			Thread.sleep(1);
+		}
+
+		Thread.sleep(50);
+
+		long time = System.currentTimeMillis();
+
+		executor.schedule(2);
+
+		while (count.get() < 2)
+		{
+			Thread.sleep(1);
+		}
+
+		assertTrue(System.currentTimeMillis() - time < 1000);
+
+		executor.shutdown();
+
+		assertEquals(executor.getWakeUpCount(), 1L);
+		assertEquals(executor.getInitializeCount(), 1L);
+		assertEquals(executor.getDestroyCount(), 1L);
+		assertTrue(executor.getIdleTimeMillis() >= 40);
+	}
+
+
+	@Test
+	public void testVirtualThreads()
+	{
+		ArrayList<Integer> order = new ArrayList<>();
+		AtomicInteger platform = new AtomicInteger();
+
+		QueuedExecutor<Integer> executor = new QueuedExecutor<Integer>(10).setVirtualThreads(true).setHandler(aTask ->
+		{
+			if (!Thread.currentThread().isVirtual())
+			{
+				platform.incrementAndGet();
+			}
+			order.add(aTask);
+		});
+
+		assertTrue(executor.isVirtualThreads());
+
+		for (int i = 0; i < 1000; i++)
+		{
+			executor.schedule(i);
+		}
+
+		executor.shutdown();
+
+		assertEquals(platform.get(), 0);
+		assertEquals(order.size(), 1000);
+		for (int i = 0; i < order.size(); i++)
+		{
+			assertEquals((int)order.get(i), i);
+		}
+	}
 }
@@ -0,0 +1,100 @@
+package org.terifan.util.executors;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.terifan.util.executors.TimeLimitedExecutor.TimeLimitedExecutorResult;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+
+public class TimeLimitedExecutorServiceNGTest
+{
+	@Test
+	public void testDone()
+	{
+		try (TimeLimitedExecutorService service = new TimeLimitedExecutorService())
+		{
+			for (int i = 0; i < 100; i++)
+			{
+				int value = i;
+
+				TimeLimitedExecutorResult<Integer> result = service.waitFor(5000, e -> value);
+
+				assertTrue(result.isDone());
+				assertFalse(result.isExpired());
+				assertEquals((int)result.get(), value);
+			}
+		}
+	}
+
+
+	@Test
+	public void testExpired()
+	{
+		AtomicBoolean expired = new AtomicBoolean();
+		AtomicBoolean done = new AtomicBoolean();
+
+		TimeLimitedExecutorResult<String> result = new TimeLimitedExecutor<String>()
+			.waitFor(50, e ->
+			{
+				Thread.sleep(10_000);
+				return "value";
+			})
+			.onExpired(e -> expired.set(true))
+			.onDone(e -> done.set(true))
+			.awaitTermination();
+
+		assertTrue(expired.get());
+		assertFalse(done.get());
+		assertFalse(result.isRunning());
+		assertNull(result.get());
+	}
+
+
+	@Test
+	public void testException()
+	{
+		try (TimeLimitedExecutorService service = new TimeLimitedExecutorService().setVirtualThreads(true))
+		{
+			TimeLimitedExecutorResult<String> result = service.waitFor(5000, e ->
+			{
+				throw new IllegalStateException();
+			});
+
+			assertTrue(result.getException() instanceof IllegalStateException);
+		}
+	}
+
+
+	@Test
+	public void testTimerWheelOrder() throws InterruptedException
+	{
+		ArrayList<Integer> order = new ArrayList<>();
+		CountDownLatch latch = new CountDownLatch(4);
+
+		try (TimerWheel timer = new TimerWheel())
+		{
+			for (int delay : new int[]{150, 10, 100, 70})
+			{
+				timer.schedule(delay, () ->
+				{
+					order.add(delay);
+					latch.countDown();
+				});
+			}
+
+			TimerWheel.Timeout cancelled = timer.schedule(80, () -> fail());
+
+			assertEquals(timer.size(), 5);
+			assertTrue(cancelled.cancel());
+			assertFalse(cancelled.cancel());
+
+			latch.await();
+
+			assertEquals(timer.size(), 0);
+		}
+
+		assertEquals(order.toString(), "[10, 70, 100, 150]");
+	}
+}